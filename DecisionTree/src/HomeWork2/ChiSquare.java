@@ -0,0 +1,76 @@
+package HomeWork2;
+
+import weka.core.Statistics;
+
+/**
+ * Critical values of the chi square distribution, for any p-value and any
+ * number of degrees of freedom. The critical value is the x for which
+ * P(X > x) = pValue, found by bisection on Weka's chi square tail probability.
+ * The critical values of one p-value are calculated once, up to a given
+ * number of degrees of freedom, so one instance serves a whole build or
+ * pruning pass, and can be shared between threads.
+ */
+class ChiSquare {
+    private static final int MAX_BISECTIONS = 200;
+
+    private final double m_pValue;
+    // m_criticalValues[df]
+    private final double[] m_criticalValues;
+
+    /**
+     * @param pValue - between 0 and 1, exclusive
+     * @param maxDf  - the largest degrees of freedom to calculate ahead
+     */
+    ChiSquare(double pValue, int maxDf) {
+        if (!(pValue > 0 && pValue < 1)) throw new IllegalArgumentException("pValue must be between 0 and 1: " + pValue);
+        this.m_pValue = pValue;
+        this.m_criticalValues = new double[Math.max(maxDf, 0) + 1];
+        for (int df = 1; df <= maxDf; df++) m_criticalValues[df] = criticalValue(pValue, df);
+    }
+
+    /**
+     * Returns true if the statistic is significant at the p-value, that is,
+     * larger than the critical value.
+     *
+     * @param statistic
+     * @param df        - at least 1
+     * @return
+     */
+    boolean isSignificant(double statistic, int df) {
+        return criticalValue(df) < statistic;
+    }
+
+    /**
+     * Returns the critical value for the degrees of freedom.
+     *
+     * @param df - at least 1
+     * @return
+     */
+    double criticalValue(int df) {
+        return (df < m_criticalValues.length) ? m_criticalValues[df] : criticalValue(m_pValue, df);
+    }
+
+    /**
+     * Returns the x for which P(X > x) = pValue, where X is chi square
+     * distributed with df degrees of freedom.
+     *
+     * @param pValue - between 0 and 1, exclusive
+     * @param df     - at least 1
+     * @return
+     */
+    static double criticalValue(double pValue, int df) {
+        if (df < 1) throw new IllegalArgumentException("df must be positive: " + df);
+        // the tail probability decreases in x, bracket the root first
+        double low = 0, high = Math.max(df, 1);
+        while (Statistics.chiSquaredProbability(high, df) > pValue) {
+            low = high;
+            high *= 2;
+        }
+        for (int i = 0; i < MAX_BISECTIONS && high - low > 1e-12 * high; i++) {
+            double middle = (low + high) / 2;
+            if (Statistics.chiSquaredProbability(middle, df) > pValue) low = middle;
+            else high = middle;
+        }
+        return (low + high) / 2;
+    }
+}
@@ -0,0 +1,138 @@
+package HomeWork2;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.Arrays;
+
+/**
+ * A primitive column-major copy of a data set, made once per training.
+ * Nominal values are stored as the indices of the values, and -1 marks a
+ * missing value. Numeric values are stored as the index of their bin, one
+ * byte per value: the bins of an attribute are its quantiles, at most
+ * MAX_BINS of them, and MISSING_BIN marks a missing value.
+ * Instances with a missing class are left out.
+ */
+class ColumnStore {
+    // the bins of a numeric attribute, one byte value is left for missing values
+    static final int MAX_BINS = 255;
+    static final int MISSING_BIN = 255;
+    // the most values of an attribute sorted to find its quantiles
+    static final int SKETCH_SIZE = 1 << 15;
+
+    final int numRows;
+    final int numAttributes;
+    final int classIndex;
+    final int numClasses;
+    // columns[attributeIndex][row] for nominal attributes, null for the others
+    final int[][] columns;
+    // bins[attributeIndex][row] for numeric attributes, null for the others
+    final byte[][] bins;
+    // the inclusive upper bounds of all the bins but the last of a numeric attribute
+    final double[][] binEdges;
+    final int[] classes;
+    // the number of values of a nominal attribute, or bins of a numeric one
+    final int[] numValues;
+
+    ColumnStore(Instances data) {
+        int m = data.numInstances();
+        int rows = 0;
+        for (int i = 0; i < m; i++) if (!data.instance(i).classIsMissing()) rows++;
+
+        this.numRows = rows;
+        this.numAttributes = data.numAttributes();
+        this.classIndex = data.classIndex();
+        this.numClasses = data.numClasses();
+        this.columns = new int[numAttributes][];
+        this.bins = new byte[numAttributes][];
+        this.binEdges = new double[numAttributes][];
+        this.classes = new int[rows];
+        this.numValues = new int[numAttributes];
+
+        for (int a = 0; a < numAttributes; a++) {
+            if (a == classIndex) continue;
+            if (data.attribute(a).isNumeric()) {
+                binEdges[a] = quantileEdges(data, a);
+                numValues[a] = binEdges[a].length + 1;
+                bins[a] = new byte[rows];
+            } else {
+                numValues[a] = data.attribute(a).numValues();
+                columns[a] = new int[rows];
+            }
+        }
+        numValues[classIndex] = numClasses;
+
+        Instance instance;
+        for (int i = 0, row = 0; i < m; i++) {
+            instance = data.instance(i);
+            if (instance.classIsMissing()) continue;
+            for (int a = 0; a < numAttributes; a++) {
+                if (a == classIndex) continue;
+                if (columns[a] != null) columns[a][row] = instance.isMissing(a) ? -1 : (int) instance.value(a);
+                else bins[a][row] = (byte) (instance.isMissing(a) ? MISSING_BIN : bin(a, instance.value(a)));
+            }
+            classes[row++] = (int) instance.classValue();
+        }
+    }
+
+    boolean isNumeric(int attributeIndex) {
+        return binEdges[attributeIndex] != null;
+    }
+
+    /**
+     * Returns the bin of a value of a numeric attribute: the first bin whose
+     * upper bound is at least the value.
+     *
+     * @param attributeIndex
+     * @param value
+     * @return
+     */
+    int bin(int attributeIndex, double value) {
+        int index = Arrays.binarySearch(binEdges[attributeIndex], value);
+        return (index >= 0) ? index : -index - 1;
+    }
+
+    /**
+     * Chooses the bin bounds of a numeric attribute at its quantiles, so the
+     * bins hold about the same number of instances. An attribute with few
+     * distinct values gets a bin per value. The quantiles of large data sets
+     * are estimated from an evenly spaced sample of SKETCH_SIZE values.
+     */
+    private static double[] quantileEdges(Instances data, int attributeIndex) {
+        int m = data.numInstances();
+        int step = Math.max(1, (m + SKETCH_SIZE - 1) / SKETCH_SIZE);
+        double[] values = new double[(m + step - 1) / step];
+        int n = 0;
+        Instance instance;
+        for (int i = 0; i < m; i += step) {
+            instance = data.instance(i);
+            if (!instance.classIsMissing() && !instance.isMissing(attributeIndex))
+                values[n++] = instance.value(attributeIndex);
+        }
+        if (n == 0) return new double[0];
+        Arrays.sort(values, 0, n);
+
+        double[] edges = new double[MAX_BINS];
+        int numEdges = 0;
+        double edge;
+        for (int k = 1; k <= MAX_BINS; k++) {
+            // the last value of the k-th quantile
+            edge = values[Math.max((int) ((long) n * k / MAX_BINS) - 1, 0)];
+            if (numEdges == 0 || edge > edges[numEdges - 1]) edges[numEdges++] = edge;
+        }
+        // the last bin has no upper bound
+        if (edges[numEdges - 1] == values[n - 1]) numEdges--;
+        return Arrays.copyOf(edges, numEdges);
+    }
+
+    /**
+     * Returns the largest number of values of a non class attribute.
+     *
+     * @return
+     */
+    int maxNumValues() {
+        int max = 0;
+        for (int a = 0; a < numAttributes; a++) if (a != classIndex) max = Math.max(max, numValues[a]);
+        return max;
+    }
+}
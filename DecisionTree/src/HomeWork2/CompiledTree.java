@@ -0,0 +1,271 @@
+package HomeWork2;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A trained tree flattened into parallel arrays, for fast inference.
+ * Nodes are numbered in depth first order (the root is 0), and the children
+ * of a split are found through a table indexed by the value of its
+ * attribute, so a walk is a loop of array lookups without any search.
+ * A numeric split has two children, for the values up to its split point
+ * and for the values above it.
+ * Walks follow DecisionTree's rules: a missing value or a value without a
+ * child ends the walk at the current node.
+ */
+class CompiledTree {
+    // the smallest number of rows split into chunks over a pool
+    private static final int CHUNK_SIZE = 1024;
+
+    // per node: the split attribute (-1 for a leaf), the start of its
+    // children in m_children, the number of entries there, the split point of
+    // a numeric split (NaN otherwise), the value and the height
+    private final int[] m_attributes;
+    private final int[] m_childStarts;
+    private final int[] m_numChildValues;
+    private final double[] m_splitPoints;
+    private final double[] m_returnValues;
+    private final int[] m_heights;
+    // per split and attribute value: the child node, or -1
+    private final int[] m_children;
+
+    CompiledTree(Node root) {
+        int[] counts = new int[2];
+        count(root, counts);
+        int numNodes = counts[0];
+        m_attributes = new int[numNodes];
+        m_childStarts = new int[numNodes];
+        m_numChildValues = new int[numNodes];
+        m_splitPoints = new double[numNodes];
+        m_returnValues = new double[numNodes];
+        m_heights = new int[numNodes];
+        m_children = new int[counts[1]];
+        flatten(root, new int[2]);
+    }
+
+    int numNodes() {
+        return m_attributes.length;
+    }
+
+    int numChildEntries() {
+        return m_children.length;
+    }
+
+    /**
+     * Writes the nodes as MappedModel's fixed size records, followed by the
+     * child table.
+     *
+     * @param out
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        for (int node = 0; node < m_attributes.length; node++) {
+            out.writeInt(m_attributes[node]);
+            out.writeInt(m_childStarts[node]);
+            out.writeInt(m_numChildValues[node]);
+            out.writeInt(m_heights[node]);
+            out.writeDouble(m_splitPoints[node]);
+            out.writeDouble(m_returnValues[node]);
+        }
+        for (int child : m_children) out.writeInt(child);
+    }
+
+    /**
+     * Counts the nodes, and the child table entries needed to index every
+     * split by the values of its attribute.
+     */
+    private static void count(Node node, int[] counts) {
+        counts[0]++;
+        if (node.attributeIndex == -1) return;
+        int numValues = 0;
+        for (Node child : node.children) {
+            numValues = Math.max(numValues, child.attributeValue + 1);
+            count(child, counts);
+        }
+        counts[1] += numValues;
+    }
+
+    /**
+     * Writes the node and its subtree, returning its index.
+     *
+     * @param next - the next free node index and child table entry
+     */
+    private int flatten(Node node, int[] next) {
+        int index = next[0]++;
+        m_attributes[index] = node.attributeIndex;
+        m_splitPoints[index] = node.splitPoint;
+        m_returnValues[index] = node.returnValue;
+        m_heights[index] = node.height;
+        if (node.attributeIndex == -1) return index;
+
+        int numValues = 0;
+        for (Node child : node.children) numValues = Math.max(numValues, child.attributeValue + 1);
+        int start = next[1];
+        next[1] += numValues;
+        m_childStarts[index] = start;
+        m_numChildValues[index] = numValues;
+        for (int v = 0; v < numValues; v++) m_children[start + v] = -1;
+        for (Node child : node.children) m_children[start + child.attributeValue] = flatten(child, next);
+        return index;
+    }
+
+    /**
+     * Returns the node where the instance's walk ends.
+     *
+     * @param instance
+     * @return
+     */
+    int walk(Instance instance) {
+        int node = 0, attribute, child;
+        double value;
+        while ((attribute = m_attributes[node]) != -1) {
+            value = instance.value(attribute);
+            if (!Double.isNaN(m_splitPoints[node])) {
+                if (Double.isNaN(value)) return node;
+                node = m_children[m_childStarts[node] + (value <= m_splitPoints[node] ? 0 : 1)];
+                continue;
+            }
+            if (!(value >= 0 && value < m_numChildValues[node])) return node;
+            child = m_children[m_childStarts[node] + (int) value];
+            if (child == -1 || value != (int) value) return node;
+            node = child;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the node where the walk of a row ends.
+     *
+     * @param row - attribute values indexed like the training attributes, NaN for missing
+     * @return
+     */
+    int walk(double[] row) {
+        int node = 0, attribute, child;
+        double value;
+        while ((attribute = m_attributes[node]) != -1) {
+            value = row[attribute];
+            if (!Double.isNaN(m_splitPoints[node])) {
+                if (Double.isNaN(value)) return node;
+                node = m_children[m_childStarts[node] + (value <= m_splitPoints[node] ? 0 : 1)];
+                continue;
+            }
+            if (!(value >= 0 && value < m_numChildValues[node])) return node;
+            child = m_children[m_childStarts[node] + (int) value];
+            if (child == -1 || value != (int) value) return node;
+            node = child;
+        }
+        return node;
+    }
+
+    double returnValue(int node) {
+        return m_returnValues[node];
+    }
+
+    double classify(Instance instance) {
+        return m_returnValues[walk(instance)];
+    }
+
+    int height(Instance instance) {
+        return m_heights[walk(instance)];
+    }
+
+    /**
+     * Classifies all the instances.
+     *
+     * @param data
+     * @param pool - the pool to split the instances over, null to classify serially
+     * @return
+     */
+    double[] classify(Instances data, ForkJoinPool pool) {
+        double[] predictions = new double[data.numInstances()];
+        forEachRange(predictions.length, pool, (from, to) -> {
+            for (int i = from; i < to; i++) predictions[i] = m_returnValues[walk(data.instance(i))];
+        });
+        return predictions;
+    }
+
+    /**
+     * Classifies all the rows.
+     *
+     * @param rows
+     * @param pool - the pool to split the rows over, null to classify serially
+     * @return
+     */
+    double[] classify(double[][] rows, ForkJoinPool pool) {
+        double[] predictions = new double[rows.length];
+        forEachRange(rows.length, pool, (from, to) -> {
+            for (int i = from; i < to; i++) predictions[i] = m_returnValues[walk(rows[i])];
+        });
+        return predictions;
+    }
+
+    /**
+     * Walks all the instances once, measuring both the error and the heights.
+     *
+     * @param data
+     * @param pool - the pool to split the instances over, null to walk serially
+     * @return {average error, average height, max height}
+     */
+    double[] evaluate(Instances data, ForkJoinPool pool) {
+        int m = data.numInstances();
+        int classIndex = data.classIndex();
+        int numChunks = numChunks(m, pool);
+        // per chunk: mistakes, sum of heights, max height
+        long[][] sums = new long[numChunks][3];
+        forEachChunk(m, numChunks, pool, (c, from, to) -> {
+            long mistakes = 0, heights = 0, maxHeight = 0;
+            Instance instance;
+            int node;
+            for (int i = from; i < to; i++) {
+                instance = data.instance(i);
+                node = walk(instance);
+                if (m_returnValues[node] != instance.value(classIndex)) mistakes++;
+                heights += m_heights[node];
+                if (m_heights[node] > maxHeight) maxHeight = m_heights[node];
+            }
+            sums[c][0] = mistakes;
+            sums[c][1] = heights;
+            sums[c][2] = maxHeight;
+        });
+
+        long mistakes = 0, heights = 0, maxHeight = 0;
+        for (long[] sum : sums) {
+            mistakes += sum[0];
+            heights += sum[1];
+            maxHeight = Math.max(maxHeight, sum[2]);
+        }
+        return new double[]{(double) mistakes / m, (double) heights / m, maxHeight};
+    }
+
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    private interface ChunkTask {
+        void run(int chunk, int from, int to);
+    }
+
+    private static int numChunks(int n, ForkJoinPool pool) {
+        if (pool == null) return 1;
+        return Math.max(1, Math.min(pool.getParallelism() * 4, n / CHUNK_SIZE));
+    }
+
+    private static void forEachRange(int n, ForkJoinPool pool, RangeTask task) {
+        forEachChunk(n, numChunks(n, pool), pool, (c, from, to) -> task.run(from, to));
+    }
+
+    private static void forEachChunk(int n, int numChunks, ForkJoinPool pool, ChunkTask task) {
+        if (numChunks <= 1) {
+            task.run(0, 0, n);
+            return;
+        }
+        pool.submit(() -> IntStream.range(0, numChunks).parallel()
+                .forEach(c -> task.run(c, (int) ((long) n * c / numChunks), (int) ((long) n * (c + 1) / numChunks))))
+                .join();
+    }
+}
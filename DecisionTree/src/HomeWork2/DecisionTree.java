@@ -5,48 +5,32 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 import weka.core.expressionlanguage.common.MathFunctions;
-import weka.filters.Filter;
-import weka.filters.unsupervised.instance.RemoveWithValues;
-import weka.core.AttributeStats;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map;
-
-
-class Node {
-    Node[] children;
-    Node parent;
-    int attributeIndex;
-    int attributeValue;
-    double returnValue;
-    int height;
-
-    // constructor for the root
-    public Node() {
-        this.parent = null;
-        this.attributeIndex = -1;
-        this.attributeValue = -1;
-        this.returnValue = -1;
-        this.children = null;
-        if (this.parent != null) this.height = this.parent.height + 1;
-        else this.height = 0;
-    }
-
-    public Node(Node parent) {
-        this.parent = parent;
-        this.attributeIndex = -1;
-        this.attributeValue = -1;
-        this.returnValue = -1;
-        this.children = null;
-        if (this.parent != null) this.height = this.parent.height + 1;
-        else this.height = 0;
-    }
-}
+import java.util.concurrent.ForkJoinPool;
 
 public class DecisionTree implements Classifier {
     Node rootNode;
+    // the tree grown without pruning, rootNode is pruned from it
+    Node unprunedRoot;
     boolean toggleEntropy;
-    double bestGain;
     double pValue = 1;
+    int numThreads = 1;
+    // the pool given by the caller, used whenever set
+    ForkJoinPool pool;
+    // the pool of numThreads threads created when no pool was given
+    ForkJoinPool ownPool;
+    // the level-wise build and its limits
+    boolean levelWise;
+    int maxDepth = Integer.MAX_VALUE;
+    int minNodeSize = 0;
+    long memoryBudget = Long.MAX_VALUE;
+    long peakMemory;
+    // the flattened form of the tree under rootNode, made on first use
+    private CompiledTree compiledTree;
+    private Node compiledRoot;
 
     @Override
     public void buildClassifier(Instances arg0) throws Exception {
@@ -61,75 +45,204 @@ public class DecisionTree implements Classifier {
         buildClassifier(arg0, 1, toggleEntropy);
     }
 
+    /**
+     * Sets the number of threads used to build the tree. Large nodes are
+     * evaluated and split concurrently, and the tree is the same as the one
+     * built by a single thread.
+     *
+     * @param numThreads - 1 for a serial build
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        if (numThreads != this.numThreads && this.ownPool != null) {
+            this.ownPool.shutdown();
+            this.ownPool = null;
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Builds the tree level by level with an explicit queue instead of
+     * recursively, scanning the data once per level. The max depth, min node
+     * size and memory budget only apply to the level-wise build, which is
+     * always serial.
+     *
+     * @param levelWise
+     */
+    public void setLevelWise(boolean levelWise) {
+        this.levelWise = levelWise;
+    }
+
+    /**
+     * @param maxDepth - the depth below which nodes are not split, the root is at depth 0
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) throw new IllegalArgumentException("maxDepth must not be negative: " + maxDepth);
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param minNodeSize - nodes with fewer instances are not split
+     */
+    public void setMinNodeSize(int minNodeSize) {
+        this.minNodeSize = minNodeSize;
+    }
+
+    /**
+     * @param memoryBudget - the bytes the level-wise build may use for its row
+     *                     indices and counts, the data itself not included
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the peak bytes of row indices, counts and queue used by the
+     * last level-wise build, 0 after a recursive build.
+     *
+     * @return
+     */
+    public long getPeakMemory() {
+        return this.peakMemory;
+    }
+
+    /**
+     * Builds on the given pool instead of a pool owned by this classifier.
+     * The pool is used whatever the number of threads, until it is replaced.
+     *
+     * @param pool - null to go back to the number of threads
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
     public void buildClassifier(Instances arg0, double pValue, boolean toggleEntropy) throws Exception {
-        this.rootNode = new Node();
+        this.unprunedRoot = new Node();
         this.toggleEntropy = toggleEntropy;
+        this.pValue = 1;
+        this.compiledTree = null;
+        buildTree(this.unprunedRoot, arg0);
+        prune(pValue);
+    }
+
+    /**
+     * Prunes the tree for another p-value without retraining. The tree is
+     * grown once without pruning, and every node keeps the chi square
+     * statistic of its split, so pruning is a single pass over the nodes:
+     * a split that is not significant at the p-value becomes a leaf. The
+     * result is the same tree as building with the p-value.
+     *
+     * @param pValue - 1 for the unpruned tree
+     */
+    public void prune(double pValue) {
+        if (this.unprunedRoot == null) throw new IllegalStateException("the tree has not been built");
         this.pValue = pValue;
-        buildTree(this.rootNode, arg0);
+        if (pValue >= 1) {
+            this.rootNode = this.unprunedRoot;
+            return;
+        }
+        ChiSquare test = new ChiSquare(pValue, maxDf(this.unprunedRoot));
+        this.rootNode = prune(this.unprunedRoot, null, test);
+    }
+
+    private Node prune(Node node, Node parent, ChiSquare test) {
+        Node pruned = new Node(parent);
+        pruned.attributeValue = node.attributeValue;
+        pruned.returnValue = node.returnValue;
+        pruned.chiSquare = node.chiSquare;
+        pruned.df = node.df;
+        if (node.attributeIndex == -1) return pruned;
+        if (node.df > 0 && !test.isSignificant(node.chiSquare, node.df)) return pruned;
+
+        pruned.attributeIndex = node.attributeIndex;
+        pruned.splitPoint = node.splitPoint;
+        pruned.children = new Node[node.children.length];
+        for (int i = 0; i < node.children.length; i++) pruned.children[i] = prune(node.children[i], pruned, test);
+        return pruned;
+    }
+
+    private static int maxDf(Node node) {
+        int max = node.df;
+        if (node.children != null) for (Node child : node.children) max = Math.max(max, maxDf(child));
+        return max;
     }
 
 
     @Override
     public double classifyInstance(Instance instance) {
-        // call the recursive auxiliary function for the tree-walk
-        return classifyInstance(instance, this.rootNode).returnValue;
+        return compiled().classify(instance);
     }
 
-    private Node classifyInstance(Instance instance, Node node) {
-        // node has no further splits return the value of this node
-        if (node.attributeIndex == -1) return node;
-
-        int nextNodeIndex = -1;
-        for (int i = 0; i < node.children.length; i++)
-            if (instance.value(node.attributeIndex) == node.children[i].attributeValue) {
-                nextNodeIndex = i;
-                break;
-            }
-        // no matching value has been found, return the value of this node
-        if (nextNodeIndex == -1) return node;
-        // continue the tree-walk
-        return classifyInstance(instance, node.children[nextNodeIndex]);
+    /**
+     * Classifies all the instances, over the pool when building on several threads.
+     *
+     * @param dataSet
+     * @return the prediction for every instance
+     */
+    public double[] classify(Instances dataSet) {
+        return compiled().classify(dataSet, pool());
     }
 
+    /**
+     * Classifies all the rows, over the pool when building on several threads.
+     *
+     * @param rows - attribute values indexed like the training attributes, NaN for missing
+     * @return the prediction for every row
+     */
+    public double[] classify(double[][] rows) {
+        return compiled().classify(rows, pool());
+    }
+
+    /**
+     * Saves the current tree in MappedModel's binary format, to be loaded
+     * and classified without retraining.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void save(Path path) throws IOException {
+        if (this.rootNode == null) throw new IllegalStateException("the tree has not been built");
+        // the return values are 0 or 1
+        MappedModel.write(path, new CompiledTree[]{compiled()}, 2);
+    }
 
     /**
-     * Builds the decision tree on given data set using recursion.
+     * Returns the flattened form of the current tree, compiling it if the
+     * tree changed since it was last compiled.
+     */
+    private CompiledTree compiled() {
+        if (this.compiledTree == null || this.compiledRoot != this.rootNode) {
+            this.compiledTree = new CompiledTree(this.rootNode);
+            this.compiledRoot = this.rootNode;
+        }
+        return this.compiledTree;
+    }
+
+    /**
+     * Builds the decision tree on given data set.
+     * The data is copied once into a primitive column store, and the tree
+     * is grown by partitioning a single array of row indices in place.
      *
      * @param node
      * @param dataSet
      */
     public void buildTree(Node node, Instances dataSet) throws Exception {
-        AttributeStats classStats = dataSet.attributeStats(dataSet.classIndex());
-        double[] classWeights = classStats.nominalWeights;
-        for (int i = 0; i < 2; i++) classWeights[i] = classWeights[i] / classStats.totalCount;
-        // assign the return value of the node by the majority of the instances
-        node.returnValue = Math.round(classWeights[1]);
-        if (classWeights[0] == 1.0 || classWeights[0] == 0.0) return;
-
-        int attributeIndex = bestDecisionAttributeIndex(dataSet);
-
-        AttributeStats attributeStats = dataSet.attributeStats(attributeIndex);
-        int allValues = dataSet.attribute(attributeIndex).numValues();
-        Instances filteredData;
-
-        if (bestGain == 0) return;
-        double chiSquareStatistic = calcChiSquare(dataSet, attributeIndex, classWeights);
-        int df = attributeStats.distinctCount - 1;
-        if (this.pValue < 1 && df > 0 && !chiSquareDecision(chiSquareStatistic, this.pValue, df))
+        this.peakMemory = 0;
+        if (this.levelWise) {
+            this.peakMemory = new TreeBuilder(new ColumnStore(dataSet), this.toggleEntropy, this.pValue)
+                    .buildLevelWise(node, this.maxDepth, this.minNodeSize, this.memoryBudget);
             return;
-
-        node.attributeIndex = attributeIndex;
-        node.children = new Node[attributeStats.distinctCount];
-
-        for (int i = 0, c = 0; i < allValues; i++) {
-            if (attributeStats.nominalCounts[i] == 0) continue;
-            filteredData = filterData(dataSet, node.attributeIndex, i);
-            node.children[c] = new Node(node);
-            node.children[c].attributeValue = i;
-            buildTree(node.children[c], filteredData);
-            c++;
         }
+        if (this.pool == null && this.numThreads > 1 && this.ownPool == null)
+            this.ownPool = new ForkJoinPool(this.numThreads);
+        new TreeBuilder(new ColumnStore(dataSet), this.toggleEntropy, this.pValue, pool()).build(node);
+    }
 
+    /**
+     * Returns the pool to build and classify on, null for a serial tree.
+     */
+    private ForkJoinPool pool() {
+        return (this.pool != null) ? this.pool : this.ownPool;
     }
 
     /**
@@ -156,32 +269,13 @@ public class DecisionTree implements Classifier {
         for (int i = 0; i < node.children.length; i++) {
             tree.append("\n");
             for (int j = 0; j < level; j++ ) tree.append("\t");
-            tree.append("If attribute " + node.attributeIndex + " = " + node.children[i].attributeValue);
+            tree.append("If attribute " + node.attributeIndex);
+            if (Double.isNaN(node.splitPoint)) tree.append(" = " + node.children[i].attributeValue);
+            else tree.append((node.children[i].attributeValue == 0 ? " <= " : " > ") + node.splitPoint);
             printTree(node.children[i], tree, level);
         }
     }
 
-    /**
-     * Calculate the index of the attribute that maximizes the Gain.
-     *
-     * @param dataSet - Instances to test
-     * @return
-     */
-    private int bestDecisionAttributeIndex(Instances dataSet) throws Exception {
-        int index = -1;
-        double currGain;
-        bestGain = -1;
-
-        for (int i = 0; i < dataSet.numAttributes() - 1; i++) {
-            currGain = calcGain(dataSet, i);
-            if (currGain > bestGain) {
-                bestGain = currGain;
-                index = i;
-            }
-        }
-        return index;
-    }
-
     /**
      * Calculate the average error on a given instances set (could be the training, test or validation set).
      * The average error is the total number of classification mistakes on
@@ -191,40 +285,33 @@ public class DecisionTree implements Classifier {
      * @return the average error
      */
     public double calcAvgError(Instances dataSet) {
-        double prediction, actual;
-        double mistakes = 0.0;
-        int m = dataSet.numInstances();
-
-        for (int i = 0; i < m; i++) {
-            prediction = classifyInstance(dataSet.instance(i));
-            actual = dataSet.instance(i).value(dataSet.classIndex());
-            if (prediction != actual) mistakes++;
-        }
-        return mistakes / m;
+        return compiled().evaluate(dataSet, pool())[0];
     }
 
     /**
      * Calculate the average height and max height on a given instances set.
+     * The height of an instance is the depth of the node where its walk ends.
      *
      * @param dataSet - could be the training, test or validation set.
      * @return heightValue[0] = avgHeight, heightValue[1] = maxHeight
      */
     public double[] calcHeightValues(Instances dataSet) {
-        int m = dataSet.numInstances();
-        int instanceHeight;
-        double maxHeight = 0.0;
-        double sumOfHeights = 0.0;
-
-        for (int i = 0; i < m; i++) {
-            instanceHeight = classifyInstance(dataSet.instance(i), this.rootNode).height;
-            if (instanceHeight > maxHeight) maxHeight = instanceHeight;
-            sumOfHeights += instanceHeight;
-        }
-
-        double[] heightValues = {sumOfHeights / m, maxHeight};
+        double[] evaluation = compiled().evaluate(dataSet, pool());
+        double[] heightValues = {evaluation[1], evaluation[2]};
         return heightValues;
     }
 
+    /**
+     * Measures the average error, the average height and the max height on a
+     * given instances set, in a single walk of every instance.
+     *
+     * @param dataSet - could be the training, test or validation set.
+     * @return {avgError, avgHeight, maxHeight}
+     */
+    public double[] evaluate(Instances dataSet) {
+        return compiled().evaluate(dataSet, pool());
+    }
+
     /**
      * calculates the gain (giniGain or informationGain depending on the impurity measure)
      * of splitting the input data according to the attribute.
@@ -234,33 +321,8 @@ public class DecisionTree implements Classifier {
      * @return the gain measured by using the given attribute
      */
     public double calcGain(Instances trainingDataSubset, int attributeIndex) throws Exception {
-
-        AttributeStats attributeStats = trainingDataSubset.attributeStats(attributeIndex);
-        AttributeStats classStats = trainingDataSubset.attributeStats(trainingDataSubset.classIndex());
-        AttributeStats valueClassStats;
-        double[] attProportions = attributeStats.nominalWeights;
-        double classProportion = classStats.nominalWeights[0] / classStats.totalCount;
-        for (int i = 0; i < attProportions.length; i++)
-            attProportions[i] = attProportions[i] / attributeStats.totalCount;
-        Instances subset;
-
-        // calculate the impurity measure of the father-set (S)
-        double impurityFatherSet = (toggleEntropy) ? calcEntropy(classProportion) : calcGini(classProportion);
-
-        // calculate the sum of impurity by filtering the trainingDataSubset by att values of attribute
-        double sumOfChildrenImpurity = 0;
-
-        for (int i = 0; i < attProportions.length; i++) {
-            if (attProportions[i] == 0.0) continue;
-            subset = filterData(trainingDataSubset, attributeIndex, i);
-            valueClassStats = subset.attributeStats(subset.classIndex());
-            classProportion = valueClassStats.nominalWeights[0] / valueClassStats.totalCount;
-            // calculate the impurity measure of the child-sets (Sv)
-            sumOfChildrenImpurity += attProportions[i] *
-                    (toggleEntropy ? calcEntropy(classProportion) : calcGini(classProportion));
-        }
-
-        return impurityFatherSet - sumOfChildrenImpurity;
+        return new TreeBuilder(new ColumnStore(trainingDataSubset), this.toggleEntropy, this.pValue)
+                .gain(attributeIndex);
     }
 
     /**
@@ -285,91 +347,6 @@ public class DecisionTree implements Classifier {
 
     }
 
-    /**
-     * Filter the Instances by their value in a specific attribute
-     *
-     * @param data           - the Instances to filter
-     * @param attributeIndex - the relevant attribute index
-     * @param byValue        - the index of the attribute's value to be kept
-     * @return - a filtered subset of the Instances
-     */
-    private static Instances filterData(Instances data, int attributeIndex, int byValue)
-            throws Exception {
-        RemoveWithValues filter = new RemoveWithValues();
-        filter.setInvertSelection(true);
-        // filtering indices starts from 1
-        filter.setAttributeIndex("" + (attributeIndex + 1));
-        filter.setNominalIndices("" + (byValue + 1));
-        filter.setInputFormat(data);
-        Instances out = Filter.useFilter(data, filter);
-        filter = null;
-        return out;
-    }
-
-    /**
-     * Calculates the chi square statistic of splitting the
-     * data according to the splitting attribute as learned in class.
-     *
-     * @param dataSet
-     * @param attributeIndex
-     * @return
-     */
-    private double calcChiSquare(Instances dataSet, int attributeIndex, double[] P) throws Exception {
-        AttributeStats attributeStats = dataSet.attributeStats(attributeIndex);
-        AttributeStats classStatsOfValue;
-        Instances instancesWithValue;
-        int[] D = attributeStats.nominalCounts;
-        double[] E = new double[2];
-        int[] N;
-        double sum = 0;
-
-        for (int i = 0; i < D.length; i++) {
-            if (D[i] == 0) continue;
-            instancesWithValue = filterData(dataSet, attributeIndex, i);
-            classStatsOfValue = instancesWithValue.attributeStats(instancesWithValue.classIndex());
-            N = classStatsOfValue.nominalCounts;
-
-            for (int j = 0; j < 2; j++) {
-                E[j] = D[i] * P[j];
-                sum += (N[j] - E[j]) * (N[j] - E[j]) / E[j];
-            }
-
-        }
-        return sum;
-    }
-
-    /**
-     * @param statistic - provided by the #calcChiSquare()
-     * @param pValue
-     * @param df        - the degrees of freedom of the attribute values
-     * @return true if the test proved informative, false otherwise
-     */
-    private boolean chiSquareDecision(double statistic, double pValue, int df) {
-        double[][] chiSquareTable = {
-                // pValue 0.75
-                {0.102, 0.575, 1.213, 1.923, 2.675, 3.455, 4.255, 5.071, 5.899, 6.737, 7.584, 8.438},
-                // pValue 0.5
-                {0.455, 1.386, 2.366, 3.357, 4.351, 5.348, 6.346, 7.344, 8.343, 9.342, 10.341, 11.340},
-                // pValue 0.25
-                {1.323, 2.773, 4.108, 5.385, 6.626, 7.841, 9.037, 10.219, 11.389, 12.549, 13.701, 14.845},
-                // pValue 0.05
-                {3.841, 5.991, 7.815, 9.488, 11.070, 12.592, 14.067, 15.507, 16.919, 18.307, 19.675, 21.026},
-                // pValue 0.005
-                {7.879, 10.597, 12.838, 14.860, 16.750, 18.548, 20.278, 21.955, 23.589, 25.188, 26.757, 28.300}
-        };
-        int pIndex;
-        if (pValue == 0.75) pIndex = 0;
-        else if (pValue == 0.5) pIndex = 1;
-        else if (pValue == 0.25) pIndex = 2;
-        else if (pValue == 0.05) pIndex = 3;
-        else if (pValue == 0.005) pIndex = 4;
-        else return true;
-
-        double cutoff = chiSquareTable[pIndex][df - 1];
-        return cutoff < statistic;
-    }
-
-
     @Override
     public double[] distributionForInstance(Instance arg0) throws Exception {
         // Don't change
@@ -0,0 +1,246 @@
+package HomeWork2;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * An incremental decision tree for unbounded streams (a Hoeffding tree, or
+ * VFDT, by Domingos and Hulten). Instead of the data, every leaf keeps the
+ * value x class counts of the instances that reached it, in the layout of
+ * TreeBuilder's tables. Every gracePeriod instances a leaf compares the
+ * gains of its two best attributes, and splits on the best one once the
+ * Hoeffding bound shows it is better with probability 1 - delta, or when
+ * the two are too close to tell apart.
+ * <p>
+ * An update walks to a leaf and adds one instance to its counts, so it
+ * costs O(depth + attributes), plus the gains at the leaf every
+ * gracePeriod instances. Leaves stop splitting once their counts would
+ * exceed the memory budget, which bounds the memory of the tree.
+ * Only nominal attributes are split on.
+ */
+public class HoeffdingTree implements Classifier, UpdateableClassifier {
+    // an estimate of the bytes of a node besides its counts
+    private static final int NODE_BYTES = 64;
+
+    Node rootNode;
+    boolean toggleEntropy;
+    double delta = 1e-7;
+    double tieThreshold = 0.05;
+    int gracePeriod = 200;
+    long memoryBudget = 64L << 20;
+
+    private int numClasses;
+    private int[] offsets;
+    private int[] numValues;
+    private int classOffset;
+    private int tableSize;
+    // the counts of every leaf, followed by the number of its instances when
+    // its gains were last calculated
+    private final Map<Node, int[]> leafCounts = new IdentityHashMap<>();
+
+    public HoeffdingTree() {
+    }
+
+    public HoeffdingTree(boolean toggleEntropy) {
+        this.toggleEntropy = toggleEntropy;
+    }
+
+    /**
+     * @param delta - the probability of choosing a worse attribute than the best one
+     */
+    public void setDelta(double delta) {
+        if (!(delta > 0 && delta < 1)) throw new IllegalArgumentException("delta must be between 0 and 1: " + delta);
+        this.delta = delta;
+    }
+
+    /**
+     * @param tieThreshold - the bound below which the two best attributes count as a tie
+     */
+    public void setTieThreshold(double tieThreshold) {
+        this.tieThreshold = tieThreshold;
+    }
+
+    /**
+     * @param gracePeriod - the number of instances a leaf sees between its split checks
+     */
+    public void setGracePeriod(int gracePeriod) {
+        if (gracePeriod < 1) throw new IllegalArgumentException("gracePeriod must be positive: " + gracePeriod);
+        this.gracePeriod = gracePeriod;
+    }
+
+    /**
+     * @param memoryBudget - the bytes of nodes and counts after which leaves stop splitting
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    public int getNumLeaves() {
+        return this.leafCounts.size();
+    }
+
+    /**
+     * Starts a new tree with the structure of the data, and learns all its instances.
+     *
+     * @param data
+     */
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        int numAttributes = data.numAttributes();
+        int classIndex = data.classIndex();
+        this.numClasses = data.numClasses();
+        this.offsets = new int[numAttributes];
+        this.numValues = new int[numAttributes];
+        int size = 0;
+        for (int a = 0; a < numAttributes; a++) {
+            this.offsets[a] = size;
+            // numeric attributes get no counts, and are never split on
+            if (a == classIndex || !data.attribute(a).isNominal()) continue;
+            this.numValues[a] = data.attribute(a).numValues();
+            size += this.numValues[a] * this.numClasses;
+        }
+        this.classOffset = size;
+        this.tableSize = size + this.numClasses;
+
+        this.leafCounts.clear();
+        this.rootNode = new Node();
+        this.leafCounts.put(this.rootNode, new int[this.tableSize + 1]);
+        for (int i = 0; i < data.numInstances(); i++) updateClassifier(data.instance(i));
+    }
+
+    /**
+     * Learns a single instance.
+     *
+     * @param instance
+     */
+    @Override
+    public void updateClassifier(Instance instance) throws Exception {
+        if (instance.classIsMissing()) return;
+        Node leaf = walk(instance);
+        int[] counts = this.leafCounts.get(leaf);
+        // the walk stopped at a split on a missing value
+        if (counts == null) return;
+
+        int classValue = (int) instance.classValue();
+        for (int a = 0; a < this.numValues.length; a++)
+            if (this.numValues[a] > 0 && !instance.isMissing(a))
+                counts[this.offsets[a] + (int) instance.value(a) * this.numClasses + classValue]++;
+        counts[this.classOffset + classValue]++;
+
+        int seen = 0;
+        for (int c = 0; c < this.numClasses; c++) seen += counts[this.classOffset + c];
+        // assign the return value of the node by the majority of the instances
+        leaf.returnValue = Math.round(counts[this.classOffset + 1] / (double) seen);
+        if (seen - counts[this.tableSize] >= this.gracePeriod) {
+            counts[this.tableSize] = seen;
+            trySplit(leaf, counts, seen);
+        }
+    }
+
+    /**
+     * Splits the leaf on its best attribute if the Hoeffding bound allows it.
+     */
+    private void trySplit(Node leaf, int[] counts, int seen) {
+        int classCount = 0;
+        for (int c = 0; c < this.numClasses; c++) if (counts[this.classOffset + c] > 0) classCount++;
+        if (classCount < 2) return;
+        long bytes = (long) (this.leafCounts.size() + this.maxNumValues()) * (4L * this.tableSize + NODE_BYTES);
+        if (bytes > this.memoryBudget) return;
+
+        int best = -1;
+        double bestGain = -1, secondGain = -1, gain;
+        for (int a = 0; a < this.numValues.length; a++) {
+            if (this.numValues[a] == 0) continue;
+            gain = TreeBuilder.gain(counts, this.offsets[a], this.numValues[a], this.numClasses, this.classOffset,
+                    this.toggleEntropy);
+            if (gain > bestGain) {
+                secondGain = bestGain;
+                bestGain = gain;
+                best = a;
+            } else if (gain > secondGain) {
+                secondGain = gain;
+            }
+        }
+        if (best == -1 || bestGain <= 0) return;
+
+        // the range of the impurity: 1 bit of entropy, or 1/2 for gini of two classes
+        double range = this.toggleEntropy ? Math.log(this.numClasses) / Math.log(2) : 1 - 1.0 / this.numClasses;
+        double bound = Math.sqrt(range * range * Math.log(1 / this.delta) / (2.0 * seen));
+        if (bestGain - Math.max(secondGain, 0) > bound || bound < this.tieThreshold) split(leaf, counts, best);
+    }
+
+    /**
+     * Turns the leaf into a split on the attribute with a new leaf per value,
+     * each predicting the majority of the leaf's instances with that value.
+     */
+    private void split(Node leaf, int[] counts, int attributeIndex) {
+        int numValues = this.numValues[attributeIndex];
+        int offset = this.offsets[attributeIndex];
+        leaf.attributeIndex = attributeIndex;
+        leaf.children = new Node[numValues];
+        this.leafCounts.remove(leaf);
+
+        for (int v = 0; v < numValues; v++) {
+            Node child = new Node(leaf);
+            child.attributeValue = v;
+            int valueCount = TreeBuilder.valueCount(counts, offset + v * this.numClasses, this.numClasses);
+            child.returnValue = (valueCount > 0)
+                    ? Math.round(counts[offset + v * this.numClasses + 1] / (double) valueCount) : leaf.returnValue;
+            leaf.children[v] = child;
+            this.leafCounts.put(child, new int[this.tableSize + 1]);
+        }
+    }
+
+    private int maxNumValues() {
+        int max = 0;
+        for (int v : this.numValues) max = Math.max(max, v);
+        return max;
+    }
+
+    /**
+     * Returns the node where the instance's walk ends: a leaf, or a split on
+     * a value the instance is missing.
+     */
+    private Node walk(Instance instance) {
+        Node node = this.rootNode;
+        while (node.attributeIndex != -1) {
+            if (instance.isMissing(node.attributeIndex)) return node;
+            node = node.children[(int) instance.value(node.attributeIndex)];
+        }
+        return node;
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) {
+        return walk(instance).returnValue;
+    }
+
+    /**
+     * Calculate the average error on a given instances set.
+     *
+     * @param dataSet
+     * @return the average error
+     */
+    public double calcAvgError(Instances dataSet) {
+        double mistakes = 0;
+        for (int i = 0; i < dataSet.numInstances(); i++)
+            if (classifyInstance(dataSet.instance(i)) != dataSet.instance(i).classValue()) mistakes++;
+        return mistakes / dataSet.numInstances();
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance arg0) throws Exception {
+        return null;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return null;
+    }
+}
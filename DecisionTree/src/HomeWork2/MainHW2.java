@@ -51,6 +51,7 @@ public class MainHW2 {
         double validationErrorEntropy = tree.calcAvgError(validationCancer);
         results.append("Validation error using Entropy: " + validationErrorEntropy + "\n");
 
+        // the unpruned gini tree, every p-value below is pruned from it
         tree.buildClassifier(trainingCancer);
         double validationErrorGini = tree.calcAvgError(validationCancer);
         results.append("Validation error using Gini: " + validationErrorGini + "\n");
@@ -59,12 +60,14 @@ public class MainHW2 {
 
         double trainingError, validationError, testError, bestP = 1;
         double bestValidationError = Double.MAX_VALUE;
-        double[] heightValues;
+        double[] heightValues, evaluation;
         for (double p : pValues) {
-            tree.buildClassifier(trainingCancer, p);
+            tree.prune(p);
             trainingError = tree.calcAvgError(trainingCancer);
-            heightValues = tree.calcHeightValues(validationCancer);
-            validationError = tree.calcAvgError(validationCancer);
+            // error and heights on the validation data in a single pass
+            evaluation = tree.evaluate(validationCancer);
+            validationError = evaluation[0];
+            heightValues = new double[]{evaluation[1], evaluation[2]};
             if (validationError < bestValidationError) {
                 bestValidationError = validationError;
                 bestP = p;
@@ -77,7 +80,7 @@ public class MainHW2 {
                     "\n----------------------------------------------------\n");
         }
 
-        tree.buildClassifier(trainingCancer, bestP);
+        tree.prune(bestP);
         testError = tree.calcAvgError(testingCancer);
         results.append("Best validation error at p_value = " + bestP +
                 "\nTest error with best tree: " + testError +
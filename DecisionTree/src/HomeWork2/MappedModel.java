@@ -0,0 +1,243 @@
+package HomeWork2;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A trained tree or forest in a compact binary file, classified directly
+ * off a (usually memory mapped) buffer without rebuilding any Node, so
+ * loading a model costs a page fault instead of a training.
+ * <p>
+ * The format is big endian, version 1:
+ * <pre>
+ * header     magic "HWDT", version, number of classes, number of trees (4 ints)
+ * directory  per tree: node offset, number of nodes, child table offset,
+ *            number of child table entries (4 ints)
+ * per tree   nodes in CompiledTree's depth first order, 32 bytes each:
+ *            attribute (-1 for a leaf), start in the child table, number of
+ *            child table entries, height (4 ints), split point (NaN for a
+ *            nominal split), return value (2 doubles);
+ *            then the child table (an int per entry, -1 for no child),
+ *            padded to 8 bytes
+ * </pre>
+ * Walks follow CompiledTree's rules. A single tree predicts the value of
+ * its leaf, and a forest the majority of its trees' votes.
+ */
+public class MappedModel {
+    static final int MAGIC = 0x48574454;
+    static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int DIRECTORY_BYTES = 16;
+    private static final int NODE_BYTES = 32;
+    // the offsets of the fields in a node record
+    private static final int CHILD_START = 4;
+    private static final int NUM_CHILD_VALUES = 8;
+    private static final int HEIGHT = 12;
+    private static final int SPLIT_POINT = 16;
+    private static final int RETURN_VALUE = 24;
+
+    private final ByteBuffer m_buffer;
+    private final int m_numClasses;
+    // per tree: the offsets of its nodes and of its child table
+    private final int[] m_nodeOffsets;
+    private final int[] m_childOffsets;
+
+    /**
+     * Reads the header of a model in the buffer, from its position on. Only
+     * absolute reads are made, so the model can be shared between threads.
+     *
+     * @param buffer
+     */
+    public MappedModel(ByteBuffer buffer) {
+        m_buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        if (m_buffer.limit() < HEADER_BYTES || m_buffer.getInt(0) != MAGIC)
+            throw new IllegalArgumentException("not a tree model");
+        int version = m_buffer.getInt(4);
+        if (version != VERSION) throw new IllegalArgumentException("unsupported model version: " + version);
+        m_numClasses = m_buffer.getInt(8);
+        int numTrees = m_buffer.getInt(12);
+        if (numTrees < 1 || m_numClasses < 1 || HEADER_BYTES + (long) numTrees * DIRECTORY_BYTES > m_buffer.limit())
+            throw new IllegalArgumentException("corrupt model header");
+
+        m_nodeOffsets = new int[numTrees];
+        m_childOffsets = new int[numTrees];
+        for (int t = 0; t < numTrees; t++) {
+            int entry = HEADER_BYTES + t * DIRECTORY_BYTES;
+            m_nodeOffsets[t] = m_buffer.getInt(entry);
+            m_childOffsets[t] = m_buffer.getInt(entry + 8);
+            long nodesEnd = m_nodeOffsets[t] + (long) m_buffer.getInt(entry + 4) * NODE_BYTES;
+            long childrenEnd = m_childOffsets[t] + 4L * m_buffer.getInt(entry + 12);
+            if (m_nodeOffsets[t] < 0 || m_childOffsets[t] < nodesEnd || childrenEnd > m_buffer.limit())
+                throw new IllegalArgumentException("corrupt model directory at tree " + t);
+        }
+    }
+
+    /**
+     * Maps the model file read only.
+     *
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    public static MappedModel load(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("model too large to map: " + path);
+            // the mapping stays valid after the channel is closed
+            return new MappedModel(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the trees in the format of this class.
+     *
+     * @param path
+     * @param trees
+     * @param numClasses - the number of classes the trees vote for
+     * @throws IOException
+     */
+    static void write(Path path, CompiledTree[] trees, int numClasses) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numClasses);
+            out.writeInt(trees.length);
+            long offset = HEADER_BYTES + (long) trees.length * DIRECTORY_BYTES;
+            for (CompiledTree tree : trees) {
+                long nodeOffset = offset;
+                long childOffset = nodeOffset + (long) tree.numNodes() * NODE_BYTES;
+                offset = childOffset + padding(tree.numChildEntries());
+                if (offset > Integer.MAX_VALUE) throw new IOException("model too large to map");
+                out.writeInt((int) nodeOffset);
+                out.writeInt(tree.numNodes());
+                out.writeInt((int) childOffset);
+                out.writeInt(tree.numChildEntries());
+            }
+            for (CompiledTree tree : trees) {
+                tree.write(out);
+                for (int i = 4 * tree.numChildEntries(); i < padding(tree.numChildEntries()); i++) out.writeByte(0);
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes of a child table padded to 8 bytes.
+     */
+    private static long padding(int numChildEntries) {
+        return (4L * numChildEntries + 7) & ~7L;
+    }
+
+    public int numTrees() {
+        return m_nodeOffsets.length;
+    }
+
+    /**
+     * Returns the offset of the node where the instance's walk in the tree ends.
+     */
+    private int walk(int tree, Instance instance) {
+        int node = m_nodeOffsets[tree], attribute, child;
+        double value, splitPoint;
+        while ((attribute = m_buffer.getInt(node)) != -1) {
+            value = instance.value(attribute);
+            splitPoint = m_buffer.getDouble(node + SPLIT_POINT);
+            if (!Double.isNaN(splitPoint)) {
+                if (Double.isNaN(value)) return node;
+                child = m_buffer.getInt(childEntry(tree, node, value <= splitPoint ? 0 : 1));
+            } else {
+                if (!(value >= 0 && value < m_buffer.getInt(node + NUM_CHILD_VALUES))) return node;
+                child = m_buffer.getInt(childEntry(tree, node, (int) value));
+                if (child == -1 || value != (int) value) return node;
+            }
+            node = m_nodeOffsets[tree] + child * NODE_BYTES;
+        }
+        return node;
+    }
+
+    /**
+     * Returns the offset of the node where the walk of a row in the tree ends.
+     */
+    private int walk(int tree, double[] row) {
+        int node = m_nodeOffsets[tree], attribute, child;
+        double value, splitPoint;
+        while ((attribute = m_buffer.getInt(node)) != -1) {
+            value = row[attribute];
+            splitPoint = m_buffer.getDouble(node + SPLIT_POINT);
+            if (!Double.isNaN(splitPoint)) {
+                if (Double.isNaN(value)) return node;
+                child = m_buffer.getInt(childEntry(tree, node, value <= splitPoint ? 0 : 1));
+            } else {
+                if (!(value >= 0 && value < m_buffer.getInt(node + NUM_CHILD_VALUES))) return node;
+                child = m_buffer.getInt(childEntry(tree, node, (int) value));
+                if (child == -1 || value != (int) value) return node;
+            }
+            node = m_nodeOffsets[tree] + child * NODE_BYTES;
+        }
+        return node;
+    }
+
+    private int childEntry(int tree, int node, int value) {
+        return m_childOffsets[tree] + 4 * (m_buffer.getInt(node + CHILD_START) + value);
+    }
+
+    public double classifyInstance(Instance instance) {
+        if (m_nodeOffsets.length == 1) return m_buffer.getDouble(walk(0, instance) + RETURN_VALUE);
+        int[] votes = new int[m_numClasses];
+        for (int t = 0; t < m_nodeOffsets.length; t++) votes[(int) m_buffer.getDouble(walk(t, instance) + RETURN_VALUE)]++;
+        return majority(votes);
+    }
+
+    /**
+     * Classifies a row.
+     *
+     * @param row - attribute values indexed like the training attributes, NaN for missing
+     * @return
+     */
+    public double classify(double[] row) {
+        if (m_nodeOffsets.length == 1) return m_buffer.getDouble(walk(0, row) + RETURN_VALUE);
+        int[] votes = new int[m_numClasses];
+        for (int t = 0; t < m_nodeOffsets.length; t++) votes[(int) m_buffer.getDouble(walk(t, row) + RETURN_VALUE)]++;
+        return majority(votes);
+    }
+
+    /**
+     * Returns the height of the leaf where the instance's walk in the tree ends.
+     *
+     * @param tree
+     * @param instance
+     * @return
+     */
+    public int height(int tree, Instance instance) {
+        return m_buffer.getInt(walk(tree, instance) + HEIGHT);
+    }
+
+    /**
+     * Calculate the average error on a given instances set.
+     *
+     * @param dataSet
+     * @return the average error
+     */
+    public double calcAvgError(Instances dataSet) {
+        double mistakes = 0;
+        for (int i = 0; i < dataSet.numInstances(); i++)
+            if (classifyInstance(dataSet.instance(i)) != dataSet.instance(i).value(dataSet.classIndex())) mistakes++;
+        return mistakes / dataSet.numInstances();
+    }
+
+    /**
+     * Returns the class with the most votes, the first one on a tie.
+     */
+    private static int majority(int[] votes) {
+        int best = 0;
+        for (int c = 1; c < votes.length; c++) if (votes[c] > votes[best]) best = c;
+        return best;
+    }
+}
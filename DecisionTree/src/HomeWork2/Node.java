@@ -0,0 +1,40 @@
+package HomeWork2;
+
+class Node {
+    Node[] children;
+    Node parent;
+    int attributeIndex;
+    int attributeValue;
+    // a numeric split sends values up to the split point to child value 0,
+    // and the others to child value 1. NaN for a nominal split
+    double splitPoint;
+    double returnValue;
+    int height;
+    // the chi square statistic and degrees of freedom of the best split,
+    // recorded whether or not the node was split
+    double chiSquare;
+    int df;
+
+    // constructor for the root
+    public Node() {
+        this.parent = null;
+        this.attributeIndex = -1;
+        this.attributeValue = -1;
+        this.splitPoint = Double.NaN;
+        this.returnValue = -1;
+        this.children = null;
+        if (this.parent != null) this.height = this.parent.height + 1;
+        else this.height = 0;
+    }
+
+    public Node(Node parent) {
+        this.parent = parent;
+        this.attributeIndex = -1;
+        this.attributeValue = -1;
+        this.splitPoint = Double.NaN;
+        this.returnValue = -1;
+        this.children = null;
+        if (this.parent != null) this.height = this.parent.height + 1;
+        else this.height = 0;
+    }
+}
@@ -0,0 +1,268 @@
+package HomeWork2;
+
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * A random forest of DecisionTree's unpruned trees. Every tree is grown by
+ * the same TreeBuilder on a single shared ColumnStore: its bootstrap sample
+ * is a weight per row (the number of times the row was drawn), and every
+ * node evaluates a random subset of the attributes. Trees are grown in
+ * parallel, each one from its own seed, so the forest only depends on the
+ * seed and not on the number of threads.
+ * The out-of-bag error is measured while training: every row is classified
+ * by the votes of the trees whose bootstrap sample left it out.
+ */
+public class RandomForest implements Classifier {
+    // the number of rows classified together by all the trees
+    private static final int BATCH_SIZE = 256;
+
+    int numTrees = 100;
+    // 0 for the square root of the number of attributes
+    int numFeatures = 0;
+    boolean toggleEntropy;
+    long seed = 1;
+    int numThreads = 1;
+    // the pool given by the caller, used whenever set
+    ForkJoinPool pool;
+    // the pool of numThreads threads created when no pool was given
+    ForkJoinPool ownPool;
+    CompiledTree[] trees;
+    int numClasses;
+    double oobError = Double.NaN;
+
+    public void setNumTrees(int numTrees) {
+        if (numTrees < 1) throw new IllegalArgumentException("numTrees must be positive: " + numTrees);
+        this.numTrees = numTrees;
+    }
+
+    /**
+     * @param numFeatures - the number of attributes evaluated at every node,
+     *                    0 for the square root of the number of attributes
+     */
+    public void setNumFeatures(int numFeatures) {
+        if (numFeatures < 0) throw new IllegalArgumentException("numFeatures must not be negative: " + numFeatures);
+        this.numFeatures = numFeatures;
+    }
+
+    public void setToggleEntropy(boolean toggleEntropy) {
+        this.toggleEntropy = toggleEntropy;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the number of trees grown at the same time, and of threads
+     * sharing the batched classification.
+     *
+     * @param numThreads - 1 for a serial forest
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        if (numThreads != this.numThreads && this.ownPool != null) {
+            this.ownPool.shutdown();
+            this.ownPool = null;
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Grows the trees, and classifies, on the given pool instead of a pool
+     * owned by this classifier. The pool is used whatever the number of
+     * threads, until it is replaced.
+     *
+     * @param pool - null to go back to the number of threads
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns the out-of-bag error of the last training, NaN if no row was
+     * left out by any tree.
+     *
+     * @return
+     */
+    public double getOOBError() {
+        return this.oobError;
+    }
+
+    @Override
+    public void buildClassifier(Instances data) throws Exception {
+        ColumnStore store = new ColumnStore(data);
+        int numRows = store.numRows;
+        // a bootstrap sample needs rows to draw from
+        if (numRows == 0) throw new IllegalArgumentException("no training instances with a class");
+        int numAttributes = store.numAttributes - 1;
+        int features = (this.numFeatures > 0) ? Math.min(this.numFeatures, numAttributes)
+                : Math.max(1, (int) Math.round(Math.sqrt(numAttributes)));
+        // the instance of every row of the store, which leaves out a missing class
+        int[] instances = new int[numRows];
+        for (int i = 0, row = 0; i < data.numInstances(); i++) if (!data.instance(i).classIsMissing()) instances[row++] = i;
+
+        this.numClasses = store.numClasses;
+        this.trees = new CompiledTree[this.numTrees];
+        // votes[row * numClasses + class] of the trees the row is out of bag for
+        int[] votes = new int[numRows * this.numClasses];
+
+        forEachTree(t -> {
+            Random random = new Random(this.seed + 31L * t);
+            int[] weights = new int[numRows];
+            for (int i = 0; i < numRows; i++) weights[random.nextInt(numRows)]++;
+
+            Node root = new Node();
+            new TreeBuilder(store, this.toggleEntropy, 1, null, weights, features, random.nextLong()).build(root);
+            CompiledTree tree = new CompiledTree(root);
+            this.trees[t] = tree;
+
+            int[] predictions = new int[numRows];
+            for (int i = 0; i < numRows; i++) predictions[i] = (weights[i] == 0) ? (int) tree.classify(data.instance(instances[i])) : -1;
+            synchronized (votes) {
+                for (int i = 0; i < numRows; i++) if (predictions[i] >= 0) votes[i * this.numClasses + predictions[i]]++;
+            }
+        });
+
+        int mistakes = 0, voted = 0;
+        for (int i = 0; i < numRows; i++) {
+            int best = majority(votes, i * this.numClasses);
+            if (best == -1) continue;
+            voted++;
+            if (best != store.classes[i]) mistakes++;
+        }
+        this.oobError = (voted > 0) ? (double) mistakes / voted : Double.NaN;
+    }
+
+    @Override
+    public double classifyInstance(Instance instance) {
+        int[] votes = new int[this.numClasses];
+        for (CompiledTree tree : this.trees) votes[(int) tree.classify(instance)]++;
+        return majority(votes, 0);
+    }
+
+    @Override
+    public double[] distributionForInstance(Instance instance) {
+        double[] distribution = new double[this.numClasses];
+        for (CompiledTree tree : this.trees) distribution[(int) tree.classify(instance)]++;
+        for (int c = 0; c < this.numClasses; c++) distribution[c] /= this.trees.length;
+        return distribution;
+    }
+
+    /**
+     * Classifies all the instances, in batches walked by one tree at a time
+     * so a tree stays in the cache for the whole batch.
+     *
+     * @param dataSet
+     * @return the prediction for every instance
+     */
+    public double[] classify(Instances dataSet) {
+        return classify(dataSet.numInstances(), (tree, i) -> tree.walk(dataSet.instance(i)));
+    }
+
+    /**
+     * Classifies all the rows, in batches walked by one tree at a time.
+     *
+     * @param rows - attribute values indexed like the training attributes, NaN for missing
+     * @return the prediction for every row
+     */
+    public double[] classify(double[][] rows) {
+        return classify(rows.length, (tree, i) -> tree.walk(rows[i]));
+    }
+
+    /**
+     * Calculate the average error on a given instances set.
+     *
+     * @param dataSet
+     * @return the average error
+     */
+    public double calcAvgError(Instances dataSet) {
+        double[] predictions = classify(dataSet);
+        double mistakes = 0;
+        for (int i = 0; i < predictions.length; i++)
+            if (predictions[i] != dataSet.instance(i).value(dataSet.classIndex())) mistakes++;
+        return mistakes / predictions.length;
+    }
+
+    /**
+     * Saves the trained forest in MappedModel's binary format, to be loaded
+     * and classified without retraining.
+     *
+     * @param path
+     * @throws IOException
+     */
+    public void save(Path path) throws IOException {
+        if (this.trees == null) throw new IllegalStateException("the forest has not been built");
+        MappedModel.write(path, this.trees, this.numClasses);
+    }
+
+    private interface Walk {
+        int leaf(CompiledTree tree, int row);
+    }
+
+    private interface TreeTask {
+        void run(int tree);
+    }
+
+    private double[] classify(int numRows, Walk walk) {
+        double[] predictions = new double[numRows];
+        int numBatches = (numRows + BATCH_SIZE - 1) / BATCH_SIZE;
+        boolean parallel = isParallel() && numBatches > 1;
+        Runnable classify = () -> {
+            IntStream batches = IntStream.range(0, numBatches);
+            (parallel ? batches.parallel() : batches).forEach(b -> {
+                int from = b * BATCH_SIZE, to = Math.min(from + BATCH_SIZE, numRows);
+                int[] votes = new int[(to - from) * this.numClasses];
+                for (CompiledTree tree : this.trees)
+                    for (int i = from; i < to; i++)
+                        votes[(i - from) * this.numClasses + (int) tree.returnValue(walk.leaf(tree, i))]++;
+                for (int i = from; i < to; i++) predictions[i] = majority(votes, (i - from) * this.numClasses);
+            });
+        };
+        if (parallel) pool().submit(classify).join();
+        else classify.run();
+        return predictions;
+    }
+
+    private void forEachTree(TreeTask task) {
+        if (isParallel()) pool().submit(() -> IntStream.range(0, this.numTrees).parallel().forEach(task::run)).join();
+        else for (int t = 0; t < this.numTrees; t++) task.run(t);
+    }
+
+    private boolean isParallel() {
+        return this.pool != null || this.numThreads > 1;
+    }
+
+    private ForkJoinPool pool() {
+        if (this.pool != null) return this.pool;
+        if (this.ownPool == null) this.ownPool = new ForkJoinPool(this.numThreads);
+        return this.ownPool;
+    }
+
+    /**
+     * Returns the class with the most votes, the first one on a tie, or -1 without votes.
+     */
+    private int majority(int[] votes, int start) {
+        int best = -1, most = 0;
+        for (int c = 0; c < this.numClasses; c++) {
+            if (votes[start + c] > most) {
+                most = votes[start + c];
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public Capabilities getCapabilities() {
+        return null;
+    }
+}
@@ -0,0 +1,745 @@
+package HomeWork2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Grows a decision tree over a ColumnStore without copying any data.
+ * The rows of a node are a range of a single row-index permutation, and a
+ * split rearranges the node's range in place (as in quicksort partitioning)
+ * so every child gets a contiguous sub-range. All the buffers are allocated
+ * once per build, so a split allocates nothing but the child nodes.
+ * <p>
+ * Splits are evaluated from a contingency table per node, holding the
+ * value x class counts of all the attributes and the class counts, built
+ * in a single scan of the node's rows. The gains and the chi square
+ * statistic all come from this table. The table of the largest child is
+ * not scanned at all, but derived by subtracting its siblings' tables from
+ * the parent's.
+ * <p>
+ * A numeric attribute is split in two at the bound of one of its bins. Its
+ * part of the table is a class histogram over the bins, so the best bound
+ * is found in a single pass over the bins, whatever the number of rows.
+ * <p>
+ * Given a pool, the columns of large nodes are scanned concurrently, and
+ * the subtrees of large nodes are grown as separate tasks. Every node is
+ * still computed from exactly the same counts, so the tree is identical
+ * to the one built serially. The tasks share the store and the row
+ * permutation, but only ever touch their own range of rows, and keep all
+ * the other state in their own Workspace.
+ * <p>
+ * For bagging, rows can be given integer weights, so a bootstrap sample is
+ * a weight per row instead of a copy of the data: rows of weight 0 are left
+ * out, and the others count as many times as their weight. The attributes
+ * evaluated at every node can be limited to a random subset of a given size.
+ */
+class TreeBuilder {
+    // the smallest nodes whose columns are scanned concurrently
+    static final int PARALLEL_SCAN_THRESHOLD = 8192;
+    // the smallest nodes whose subtrees are grown as separate tasks
+    static final int FORK_THRESHOLD = 2048;
+
+    private final ColumnStore m_store;
+    private final boolean m_toggleEntropy;
+    // the test of the splits, null when the tree is not pruned
+    private final ChiSquare m_chiSquare;
+    private final int[] m_rows;
+    private final int[] m_scratch;
+    // start of every attribute's value x class counts in a table
+    private final int[] m_offsets;
+    // start of the class counts in a table
+    private final int m_classOffset;
+    private final int m_tableSize;
+    private final ForkJoinPool m_pool;
+    // the weight of every row of the store, null when they all weigh 1
+    private final int[] m_weights;
+    // the number of attributes evaluated at a node, 0 for all of them
+    private final int m_numFeatures;
+    private final long m_seed;
+
+    TreeBuilder(ColumnStore store, boolean toggleEntropy, double pValue) {
+        this(store, toggleEntropy, pValue, null);
+    }
+
+    TreeBuilder(ColumnStore store, boolean toggleEntropy, double pValue, ForkJoinPool pool) {
+        this(store, toggleEntropy, pValue, pool, null, 0, 0);
+    }
+
+    /**
+     * @param store
+     * @param toggleEntropy
+     * @param pValue
+     * @param pool          - the pool to build on, null for a serial build
+     * @param weights       - the weight of every row of the store, null for all 1
+     * @param numFeatures   - the number of attributes drawn at random at every node, 0 for all of them
+     * @param seed          - the seed of the attribute draws
+     */
+    TreeBuilder(ColumnStore store, boolean toggleEntropy, double pValue, ForkJoinPool pool,
+                int[] weights, int numFeatures, long seed) {
+        this.m_store = store;
+        this.m_pool = pool;
+        this.m_toggleEntropy = toggleEntropy;
+        this.m_chiSquare = (pValue < 1) ? new ChiSquare(pValue, store.maxNumValues() - 1) : null;
+        this.m_weights = weights;
+        this.m_numFeatures = numFeatures;
+        this.m_seed = seed;
+        int numRows = 0;
+        for (int i = 0; i < store.numRows; i++) if (weights == null || weights[i] > 0) numRows++;
+        this.m_rows = new int[numRows];
+        this.m_scratch = new int[numRows];
+        for (int i = 0, r = 0; i < store.numRows; i++) if (weights == null || weights[i] > 0) m_rows[r++] = i;
+
+        this.m_offsets = new int[store.numAttributes];
+        int size = 0;
+        for (int a = 0; a < store.numAttributes; a++) {
+            m_offsets[a] = size;
+            if (a != store.classIndex) size += store.numValues[a] * store.numClasses;
+        }
+        this.m_classOffset = size;
+        this.m_tableSize = size + store.numClasses;
+    }
+
+    /**
+     * Builds the tree on all the rows of the store.
+     *
+     * @param root
+     */
+    void build(Node root) {
+        int numRows = m_rows.length;
+        if (m_pool == null) {
+            Workspace workspace = new Workspace(16, m_seed);
+            scan(0, numRows, workspace.tables[0]);
+            build(workspace, root, 0, numRows, 0);
+            return;
+        }
+        m_pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                int[] table = new int[m_tableSize];
+                scan(0, numRows, table);
+                new Subtree(root, 0, numRows, table, m_seed).compute();
+            }
+        });
+    }
+
+    /**
+     * Calculates the gain of splitting all the rows of the store by the attribute.
+     *
+     * @param attributeIndex
+     * @return
+     */
+    double gain(int attributeIndex) {
+        int[] table = new int[m_tableSize];
+        scan(0, m_rows.length, table);
+        return gain(table, attributeIndex, new int[m_store.numAttributes]);
+    }
+
+    /**
+     * Builds the tree level by level, without recursion. The nodes waiting
+     * to be split are kept in a queue, and the nodes of a level are counted
+     * together, in a single scan of their rows per column, as many of them at
+     * a time as the memory budget allows for their tables. Tables are not kept
+     * between levels, so the tables of the larger children are counted rather
+     * than derived from their parents'. Nodes at the max depth, or with fewer
+     * rows than the min node size, are leaves.
+     *
+     * @param root
+     * @param maxDepth     - nodes at this depth are leaves, the root is at depth 0
+     * @param minNodeSize  - the fewest rows of a node that can be split
+     * @param memoryBudget - the bytes for the row index arrays and the tables of a batch
+     * @return the peak bytes of the row index arrays, tables and queue
+     */
+    long buildLevelWise(Node root, int maxDepth, int minNodeSize, long memoryBudget) {
+        long fixedBytes = 8L * m_rows.length;
+        long tableBytes = 4L * m_tableSize;
+        if (fixedBytes + tableBytes > memoryBudget)
+            throw new IllegalArgumentException("memory budget of " + memoryBudget + " bytes is below the "
+                    + (fixedBytes + tableBytes) + " needed for a single node");
+
+        Workspace w = new Workspace(0, m_seed);
+        int[] starts = new int[w.next.length];
+        ArrayDeque<Frontier> queue = new ArrayDeque<>();
+        List<Frontier> batch = new ArrayList<>();
+        List<int[]> tables = new ArrayList<>();
+        long peak = 0;
+        queue.add(new Frontier(root, 0, m_rows.length, 0));
+
+        while (!queue.isEmpty()) {
+            // the next nodes of the same level whose tables fit in the budget
+            batch.clear();
+            int depth = queue.peek().depth;
+            while (!queue.isEmpty() && queue.peek().depth == depth
+                    && (batch.isEmpty() || fixedBytes + (batch.size() + 1) * tableBytes <= memoryBudget))
+                batch.add(queue.poll());
+            while (tables.size() < batch.size()) tables.add(new int[m_tableSize]);
+            peak = Math.max(peak, fixedBytes + tables.size() * tableBytes
+                    + (long) (queue.size() + batch.size()) * Frontier.BYTES);
+
+            scanBatch(batch, tables, maxDepth, minNodeSize);
+            for (int b = 0; b < batch.size(); b++) {
+                Frontier entry = batch.get(b);
+                Node node = entry.node;
+                if (isLeaf(entry, maxDepth, minNodeSize)) {
+                    setReturnValue(w, node, tables.get(b));
+                    continue;
+                }
+                int numValues = split(w, node, tables.get(b), entry.from, entry.to, starts);
+                if (numValues == -1) continue;
+                for (int v = 0, c = 0; v < numValues; v++) {
+                    if (starts[v] == starts[v + 1]) continue;
+                    node.children[c] = new Node(node);
+                    node.children[c].attributeValue = v;
+                    queue.add(new Frontier(node.children[c++], starts[v], starts[v + 1], depth + 1));
+                }
+            }
+        }
+        return peak;
+    }
+
+    private static boolean isLeaf(Frontier entry, int maxDepth, int minNodeSize) {
+        return entry.depth >= maxDepth || entry.to - entry.from < minNodeSize;
+    }
+
+    /**
+     * Fills the tables of the batch in a single pass over the rows of every
+     * column. Only the class counts of the nodes that will be leaves are counted.
+     */
+    private void scanBatch(List<Frontier> batch, List<int[]> tables, int maxDepth, int minNodeSize) {
+        int[] classes = m_store.classes;
+        int row;
+        for (int b = 0; b < batch.size(); b++) {
+            int[] table = tables.get(b);
+            for (int i = 0; i < m_tableSize; i++) table[i] = 0;
+            for (int i = batch.get(b).from; i < batch.get(b).to; i++) {
+                row = m_rows[i];
+                table[m_classOffset + classes[row]] += (m_weights == null) ? 1 : m_weights[row];
+            }
+        }
+        for (int a = 0; a < m_store.numAttributes; a++) {
+            if (a == m_store.classIndex) continue;
+            for (int b = 0; b < batch.size(); b++) {
+                Frontier entry = batch.get(b);
+                if (!isLeaf(entry, maxDepth, minNodeSize)) scanColumn(a, entry.from, entry.to, tables.get(b));
+            }
+        }
+    }
+
+    /**
+     * Builds the subtree of the node on the rows [from, to) of the permutation.
+     * Expects the workspace's table of the depth to hold the table of these rows.
+     */
+    private void build(Workspace w, Node node, int from, int to, int depth) {
+        w.ensureDepth(depth + 2);
+        int[] table = w.tables[depth];
+        int[] starts = w.childStarts[depth];
+        int numValues = split(w, node, table, from, to, starts);
+        if (numValues == -1) return;
+
+        // the largest child is built last, from its parent's table
+        int largest = 0;
+        for (int v = 1; v < numValues; v++)
+            if (starts[v + 1] - starts[v] > starts[largest + 1] - starts[largest]) largest = v;
+
+        if (m_pool != null && to - from >= FORK_THRESHOLD) {
+            fork(w, node, table, to, starts, numValues, largest);
+            return;
+        }
+
+        int[] siblingSum = w.siblingSums[depth];
+        int[] childTable = w.tables[depth + 1];
+        for (int i = 0; i < m_tableSize; i++) siblingSum[i] = 0;
+        // rows missing the attribute go to no child, but are in the parent's table
+        if (starts[numValues] < to) {
+            scan(starts[numValues], to, childTable);
+            add(siblingSum, childTable);
+        }
+
+        int largestChild = -1;
+        for (int v = 0, c = 0; v < numValues; v++) {
+            if (starts[v] == starts[v + 1]) continue;
+            node.children[c] = new Node(node);
+            node.children[c].attributeValue = v;
+            if (v == largest) {
+                largestChild = c++;
+                continue;
+            }
+            scan(starts[v], starts[v + 1], childTable);
+            add(siblingSum, childTable);
+            build(w, node.children[c], starts[v], starts[v + 1], depth + 1);
+            c++;
+        }
+
+        for (int i = 0; i < m_tableSize; i++) childTable[i] = table[i] - siblingSum[i];
+        build(w, node.children[largestChild], starts[largest], starts[largest + 1], depth + 1);
+    }
+
+    /**
+     * Sets the return value of the node by the majority of its rows, and the
+     * class proportions of the workspace.
+     *
+     * @return true if all the rows are of the same class
+     */
+    private boolean setReturnValue(Workspace w, Node node, int[] table) {
+        double[] classWeights = w.classWeights;
+        int numClasses = m_store.numClasses;
+        double total = 0;
+        for (int c = 0; c < numClasses; c++) total += table[m_classOffset + c];
+        for (int c = 0; c < numClasses; c++) classWeights[c] = table[m_classOffset + c] / total;
+        // assign the return value of the node by the majority of the instances
+        node.returnValue = Math.round(classWeights[1]);
+        return classWeights[0] == 1.0 || classWeights[0] == 0.0;
+    }
+
+    /**
+     * Chooses the split of the node from the table of its rows [from, to),
+     * and partitions the rows by it. Sets the return value of the node, and
+     * for a split also its attribute, statistics and (empty) children array.
+     *
+     * @param starts - output, the rows of child value v are [starts[v], starts[v+1])
+     * @return the number of child values, or -1 if the node is a leaf
+     */
+    private int split(Workspace w, Node node, int[] table, int from, int to, int[] starts) {
+        if (setReturnValue(w, node, table)) return -1;
+        double[] classWeights = w.classWeights;
+        int numClasses = m_store.numClasses;
+
+        int attributeIndex = -1, a;
+        double currGain, bestGain = -1;
+        int numCandidates = drawFeatures(w);
+        for (int f = 0; f < numCandidates; f++) {
+            a = w.features[f];
+            currGain = gain(table, a, w.cuts);
+            if (currGain > bestGain) {
+                bestGain = currGain;
+                attributeIndex = a;
+            }
+        }
+        if (attributeIndex == -1 || bestGain == 0) return -1;
+
+        int cut = w.cuts[attributeIndex];
+        int[] counts = w.splitCounts;
+        int numValues = splitCounts(table, attributeIndex, cut, counts);
+        int distinctCount = 0;
+        for (int v = 0; v < numValues; v++) if (valueCount(counts, v * numClasses) > 0) distinctCount++;
+
+        // kept on the node so the tree can be pruned later without the data
+        node.chiSquare = calcChiSquare(counts, numValues, classWeights);
+        node.df = distinctCount - 1;
+        if (m_chiSquare != null && node.df > 0 && !m_chiSquare.isSignificant(node.chiSquare, node.df))
+            return -1;
+
+        partition(w, numValues, attributeIndex, cut, from, to, starts);
+        node.attributeIndex = attributeIndex;
+        if (m_store.isNumeric(attributeIndex)) node.splitPoint = m_store.binEdges[attributeIndex][cut];
+        node.children = new Node[distinctCount];
+        return numValues;
+    }
+
+    /**
+     * Grows the children of the node as separate tasks, each with its own
+     * copy of its table. The children array is created by the caller.
+     */
+    private void fork(Workspace w, Node node, int[] table, int to, int[] starts, int numValues, int largest) {
+        int[] siblingSum = new int[m_tableSize];
+        if (starts[numValues] < to) {
+            int[] missing = new int[m_tableSize];
+            scan(starts[numValues], to, missing);
+            add(siblingSum, missing);
+        }
+
+        List<Subtree> tasks = new ArrayList<>();
+        Subtree largestTask = null;
+        for (int v = 0, c = 0; v < numValues; v++) {
+            if (starts[v] == starts[v + 1]) continue;
+            node.children[c] = new Node(node);
+            node.children[c].attributeValue = v;
+            Subtree task = new Subtree(node.children[c++], starts[v], starts[v + 1], new int[m_tableSize],
+                    w.random.nextLong());
+            if (v == largest) {
+                largestTask = task;
+                continue;
+            }
+            scan(starts[v], starts[v + 1], task.table);
+            add(siblingSum, task.table);
+            tasks.add(task);
+        }
+        for (int i = 0; i < m_tableSize; i++) largestTask.table[i] = table[i] - siblingSum[i];
+        tasks.add(largestTask);
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Puts the attributes to evaluate at the node first in the workspace's
+     * features: all of them in order, or a random subset of m_numFeatures.
+     *
+     * @return the number of attributes to evaluate
+     */
+    private int drawFeatures(Workspace w) {
+        int[] features = w.features;
+        if (m_numFeatures <= 0 || m_numFeatures >= features.length) return features.length;
+        // a partial Fisher-Yates shuffle
+        for (int i = 0, j, swap; i < m_numFeatures; i++) {
+            j = i + w.random.nextInt(features.length - i);
+            swap = features[i];
+            features[i] = features[j];
+            features[j] = swap;
+        }
+        return m_numFeatures;
+    }
+
+    /**
+     * Calculates the gain (giniGain or informationGain depending on the impurity measure)
+     * of splitting the rows of the table by the attribute.
+     *
+     * @param cuts - output, the best cut of a numeric attribute is stored at its index
+     */
+    private double gain(int[] table, int attributeIndex, int[] cuts) {
+        if (m_store.isNumeric(attributeIndex)) return numericGain(table, attributeIndex, cuts);
+        return gain(table, m_offsets[attributeIndex], m_store.numValues[attributeIndex], m_store.numClasses,
+                m_classOffset, m_toggleEntropy);
+    }
+
+    /**
+     * Calculates the gain of splitting by a nominal attribute, given a table
+     * holding its value x class counts and the class counts of the rows.
+     *
+     * @param table
+     * @param offset        - the start of the value x class counts
+     * @param numValues
+     * @param numClasses
+     * @param classOffset   - the start of the class counts
+     * @param toggleEntropy - true for informationGain, false for giniGain
+     * @return
+     */
+    static double gain(int[] table, int offset, int numValues, int numClasses, int classOffset, boolean toggleEntropy) {
+        int nonMissing = 0, rows = 0;
+        for (int v = 0; v < numValues; v++) nonMissing += valueCount(table, offset + v * numClasses, numClasses);
+        for (int c = 0; c < numClasses; c++) rows += table[classOffset + c];
+        // the attribute is missing on every row, so it can not split them
+        if (nonMissing == 0) return 0;
+
+        double classProportion = table[classOffset] / (double) rows;
+        double attProportion;
+        int valueCount;
+
+        // the impurity measure of the father-set (S)
+        double impurityFatherSet = impurity(classProportion, toggleEntropy);
+
+        // the sum of the impurity of the child-sets (Sv)
+        double sumOfChildrenImpurity = 0;
+        for (int v = 0; v < numValues; v++) {
+            valueCount = valueCount(table, offset + v * numClasses, numClasses);
+            attProportion = valueCount / (double) nonMissing;
+            if (attProportion == 0.0) continue;
+            classProportion = table[offset + v * numClasses] / (double) valueCount;
+            sumOfChildrenImpurity += attProportion * impurity(classProportion, toggleEntropy);
+        }
+
+        return impurityFatherSet - sumOfChildrenImpurity;
+    }
+
+    /**
+     * Calculates the gain of the best split of a numeric attribute in two,
+     * bins up to the cut against the bins after it, in one pass over the bins.
+     * An attribute that cannot be split has no gain, and a cut of -1.
+     */
+    private double numericGain(int[] table, int attributeIndex, int[] cuts) {
+        int numBins = m_store.numValues[attributeIndex];
+        int numClasses = m_store.numClasses;
+        int offset = m_offsets[attributeIndex];
+        int nonMissing = 0, nonMissingClass0 = 0, rows = 0;
+        for (int b = 0; b < numBins; b++) {
+            nonMissing += valueCount(table, offset + b * numClasses);
+            nonMissingClass0 += table[offset + b * numClasses];
+        }
+        for (int c = 0; c < numClasses; c++) rows += table[m_classOffset + c];
+
+        // the impurity measure of the father-set (S)
+        double impurityFatherSet = impurity(table[m_classOffset] / (double) rows);
+
+        int left = 0, leftClass0 = 0, right, rightClass0;
+        double sumOfChildrenImpurity, bestSum = Double.MAX_VALUE;
+        cuts[attributeIndex] = -1;
+        for (int b = 0; b < numBins - 1; b++) {
+            left += valueCount(table, offset + b * numClasses);
+            leftClass0 += table[offset + b * numClasses];
+            right = nonMissing - left;
+            rightClass0 = nonMissingClass0 - leftClass0;
+            if (left == 0 || right == 0) continue;
+            sumOfChildrenImpurity = left / (double) nonMissing * impurity(leftClass0 / (double) left)
+                    + right / (double) nonMissing * impurity(rightClass0 / (double) right);
+            if (sumOfChildrenImpurity < bestSum) {
+                bestSum = sumOfChildrenImpurity;
+                cuts[attributeIndex] = b;
+            }
+        }
+        return (cuts[attributeIndex] == -1) ? 0 : impurityFatherSet - bestSum;
+    }
+
+    private double impurity(double p) {
+        return impurity(p, m_toggleEntropy);
+    }
+
+    static double impurity(double p, boolean toggleEntropy) {
+        return toggleEntropy ? DecisionTree.calcEntropy(p) : DecisionTree.calcGini(p);
+    }
+
+    /**
+     * Calculates the chi square statistic of a split, given the value x class
+     * counts of the split and the class proportions of the split rows.
+     */
+    private double calcChiSquare(int[] counts, int numValues, double[] classWeights) {
+        int numClasses = m_store.numClasses;
+        double sum = 0, E;
+        int D, N;
+
+        for (int v = 0; v < numValues; v++) {
+            D = valueCount(counts, v * numClasses);
+            if (D == 0) continue;
+            for (int c = 0; c < numClasses; c++) {
+                N = counts[v * numClasses + c];
+                E = D * classWeights[c];
+                sum += (N - E) * (N - E) / E;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Fills counts with the value x class counts of splitting the rows of the
+     * table by the attribute: its own counts for a nominal attribute, and the
+     * bins up to the cut and after it for a numeric one.
+     *
+     * @return the number of child values of the split
+     */
+    private int splitCounts(int[] table, int attributeIndex, int cut, int[] counts) {
+        int numValues = m_store.numValues[attributeIndex];
+        int numClasses = m_store.numClasses;
+        int offset = m_offsets[attributeIndex];
+        if (!m_store.isNumeric(attributeIndex)) {
+            System.arraycopy(table, offset, counts, 0, numValues * numClasses);
+            return numValues;
+        }
+        for (int i = 0; i < 2 * numClasses; i++) counts[i] = 0;
+        for (int b = 0; b < numValues; b++)
+            for (int c = 0; c < numClasses; c++) counts[(b <= cut ? 0 : numClasses) + c] += table[offset + b * numClasses + c];
+        return 2;
+    }
+
+    /**
+     * Fills the table with the counts of the rows [from, to), in a single
+     * pass over the rows per column. The columns of large ranges are scanned
+     * concurrently when building on a pool; they fill disjoint parts of the table.
+     */
+    private void scan(int from, int to, int[] table) {
+        int[] classes = m_store.classes;
+        int row;
+        for (int i = 0; i < m_tableSize; i++) table[i] = 0;
+        for (int i = from; i < to; i++) {
+            row = m_rows[i];
+            table[m_classOffset + classes[row]] += (m_weights == null) ? 1 : m_weights[row];
+        }
+
+        if (m_pool == null || to - from < PARALLEL_SCAN_THRESHOLD) {
+            for (int a = 0; a < m_store.numAttributes; a++)
+                if (a != m_store.classIndex) scanColumn(a, from, to, table);
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (int a = 0; a < m_store.numAttributes; a++) {
+            if (a == m_store.classIndex) continue;
+            int attributeIndex = a;
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    scanColumn(attributeIndex, from, to, table);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private void scanColumn(int attributeIndex, int from, int to, int[] table) {
+        int[] classes = m_store.classes;
+        int[] column = m_store.columns[attributeIndex];
+        int numClasses = m_store.numClasses;
+        int offset = m_offsets[attributeIndex];
+        int row, v;
+        if (m_store.isNumeric(attributeIndex)) {
+            byte[] bins = m_store.bins[attributeIndex];
+            for (int i = from; i < to; i++) {
+                row = m_rows[i];
+                v = bins[row] & 0xFF;
+                if (v != ColumnStore.MISSING_BIN)
+                    table[offset + v * numClasses + classes[row]] += (m_weights == null) ? 1 : m_weights[row];
+            }
+            return;
+        }
+        for (int i = from; i < to; i++) {
+            row = m_rows[i];
+            v = column[row];
+            if (v >= 0) table[offset + v * numClasses + classes[row]] += (m_weights == null) ? 1 : m_weights[row];
+        }
+    }
+
+    private static void add(int[] sum, int[] table) {
+        for (int i = 0; i < sum.length; i++) sum[i] += table[i];
+    }
+
+    private int valueCount(int[] table, int start) {
+        return valueCount(table, start, m_store.numClasses);
+    }
+
+    static int valueCount(int[] table, int start, int numClasses) {
+        int count = 0;
+        for (int c = 0; c < numClasses; c++) count += table[start + c];
+        return count;
+    }
+
+    /**
+     * Rearranges the rows [from, to) so the rows of every child value of the
+     * split are contiguous, in value order, followed by the rows where the
+     * attribute is missing. The child value of a nominal attribute is its
+     * value, and of a numeric one 0 up to the cut and 1 after it.
+     *
+     * @param starts - output, the rows of value v are [starts[v], starts[v+1])
+     */
+    private void partition(Workspace w, int numValues, int attributeIndex, int cut,
+                           int from, int to, int[] starts) {
+        int[] next = w.next;
+        int v;
+
+        // the rows are counted, as the table holds weights
+        for (v = 0; v <= numValues; v++) next[v] = 0;
+        for (int i = from; i < to; i++) next[childValue(attributeIndex, cut, numValues, m_rows[i])]++;
+
+        starts[0] = from;
+        for (v = 0; v < numValues; v++) {
+            starts[v + 1] = starts[v] + next[v];
+            next[v] = starts[v];
+        }
+        // missing values go last and are not passed to any child
+        next[numValues] = starts[numValues];
+
+        for (int i = from; i < to; i++) m_scratch[next[childValue(attributeIndex, cut, numValues, m_rows[i])]++] = m_rows[i];
+        System.arraycopy(m_scratch, from, m_rows, from, to - from);
+    }
+
+    /**
+     * Returns the child value of the row in a split, numValues when the attribute is missing.
+     */
+    private int childValue(int attributeIndex, int cut, int numValues, int row) {
+        if (m_store.isNumeric(attributeIndex)) {
+            int bin = m_store.bins[attributeIndex][row] & 0xFF;
+            return (bin == ColumnStore.MISSING_BIN) ? numValues : (bin <= cut ? 0 : 1);
+        }
+        int value = m_store.columns[attributeIndex][row];
+        return (value < 0) ? numValues : value;
+    }
+
+    /**
+     * The state of a single build task.
+     */
+    private class Workspace {
+        final double[] classWeights = new double[m_store.numClasses];
+        final int[] next = new int[m_store.maxNumValues() + 1];
+        // the best cut of every numeric attribute at the current node
+        final int[] cuts = new int[m_store.numAttributes];
+        // the value x class counts of the current node's split
+        final int[] splitCounts = new int[Math.max(m_store.maxNumValues(), 2) * m_store.numClasses];
+        // the non class attributes, the ones to evaluate at the node first
+        final int[] features;
+        final Random random;
+        // per depth, as they have to survive the recursion: the table of the node,
+        // the sum of the tables of its scanned children and the start of every child's range
+        int[][] tables = new int[0][];
+        int[][] siblingSums = new int[0][];
+        int[][] childStarts = new int[0][];
+
+        Workspace(int depth, long seed) {
+            this.random = new Random(seed);
+            this.features = new int[m_store.numAttributes - 1];
+            for (int a = 0, f = 0; a < m_store.numAttributes; a++) if (a != m_store.classIndex) features[f++] = a;
+            ensureDepth(depth);
+        }
+
+        /**
+         * @param table - the table of the task's root, becomes the table of depth 0
+         * @param seed
+         */
+        Workspace(int[] table, long seed) {
+            this(1, seed);
+            tables[0] = table;
+        }
+
+        /**
+         * Makes sure the per depth buffers exist for the depths [0, depth).
+         */
+        void ensureDepth(int depth) {
+            if (depth <= tables.length) return;
+            int size = Math.max(depth, 2 * tables.length);
+            int[][] grownTables = new int[size][];
+            int[][] grownSiblingSums = new int[size][];
+            int[][] grownChildStarts = new int[size][];
+            System.arraycopy(tables, 0, grownTables, 0, tables.length);
+            System.arraycopy(siblingSums, 0, grownSiblingSums, 0, siblingSums.length);
+            System.arraycopy(childStarts, 0, grownChildStarts, 0, childStarts.length);
+            for (int d = tables.length; d < size; d++) {
+                grownTables[d] = new int[m_tableSize];
+                grownSiblingSums[d] = new int[m_tableSize];
+                grownChildStarts[d] = new int[next.length];
+            }
+            tables = grownTables;
+            siblingSums = grownSiblingSums;
+            childStarts = grownChildStarts;
+        }
+    }
+
+    /**
+     * A node waiting in the level-wise build's queue, with its range of rows.
+     */
+    private static class Frontier {
+        // an estimate of the size of an entry, with its reference in the queue
+        static final int BYTES = 40;
+
+        final Node node;
+        final int from, to, depth;
+
+        Frontier(Node node, int from, int to, int depth) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Grows the subtree of a node on its own workspace.
+     */
+    private class Subtree extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Node node;
+        final int from, to;
+        final int[] table;
+        final long seed;
+
+        Subtree(Node node, int from, int to, int[] table, long seed) {
+            this.node = node;
+            this.from = from;
+            this.to = to;
+            this.table = table;
+            this.seed = seed;
+        }
+
+        @Override
+        protected void compute() {
+            build(new Workspace(table, seed), node, from, to, 0);
+        }
+    }
+}
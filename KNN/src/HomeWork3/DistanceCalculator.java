@@ -0,0 +1,336 @@
+package HomeWork3;
+
+import weka.core.Instance;
+
+/**
+ * Lp distances over the attributes of instances, or over primitive arrays
+ * of attribute values. The kernel is chosen once, by p: L1 and L2 without
+ * any power, integer p by repeated multiplication, L infinity by a maximum,
+ * and Math.pow only for any other p.
+ * With the efficient check, a distance is abandoned as soon as its partial
+ * sum passes the cut off value raised to p, which is calculated once when
+ * the cut off is set. The powered cut off keeps a small slack over rounding,
+ * and a distance equal to the cut off is never abandoned, so the efficient
+ * check only abandons distances which really are larger than the cut off.
+ */
+class DistanceCalculator {
+    // the relative slack of the powered cut off over the rounding of p-th powers and roots
+    private static final double CUT_OF_SLACK = 1e-12;
+    // the largest p calculated by repeated multiplication
+    private static final int MAX_INTEGER_P = 16;
+
+    private static final int L1 = 1;
+    private static final int L2 = 2;
+    private static final int INTEGER_P = 3;
+    private static final int GENERAL_P = 4;
+    private static final int L_INFINITY = 5;
+
+    private double p;
+    private boolean calcEfficient;
+    private double cutOfValue;
+    private double poweredCutOfValue;
+    private final int kernel;
+    private final int integerP;
+    // the number of attributes read by the last abandoned distance
+    private int abandonedAt;
+    // the distances calculated, the abandoned ones and the attributes they read
+    private int numDistances;
+    private int numAbandoned;
+    private long numAbandonedAttributes;
+
+    public DistanceCalculator(double p, Knn.DistanceCheck distanceCheck) {
+        this.p = p;
+        this.calcEfficient = distanceCheck == Knn.DistanceCheck.Efficient;
+        if (p == Double.MAX_VALUE) this.kernel = L_INFINITY;
+        else if (p == 1) this.kernel = L1;
+        else if (p == 2) this.kernel = L2;
+        else if (p == Math.rint(p) && p > 2 && p <= MAX_INTEGER_P) this.kernel = INTEGER_P;
+        else this.kernel = GENERAL_P;
+        this.integerP = (int) p;
+        setCutOfValue(Double.MAX_VALUE);
+    }
+
+    public void setCutOfValue(double cutOfValue) {
+        this.cutOfValue = cutOfValue;
+        this.poweredCutOfValue = (this.kernel == L_INFINITY) ? cutOfValue : power(cutOfValue) * (1 + CUT_OF_SLACK);
+    }
+
+    public double getP() {
+        return p;
+    }
+
+    public double getCutOfValue() {
+        return cutOfValue;
+    }
+
+    /**
+     * We leave it up to you wheter you want the distance method to get all relevant
+     * parameters(lp, efficient, etc..) or have it has a class variables.
+     */
+    public double distance(Instance one, Instance two) {
+        if (p == Double.MAX_VALUE) return lInfinityDistance(one, two);
+        else return lpDistance(one, two);
+    }
+
+    /**
+     * Returns the distance between the attribute values of an instance and
+     * the values stored in an array from an offset on, or Double.MAX_VALUE
+     * if the efficient check abandoned it.
+     *
+     * @param one    - the attribute values, without the class
+     * @param data
+     * @param offset - the position of the first value in data
+     * @return
+     */
+    public double distance(double[] one, double[] data, int offset) {
+        double limit = this.calcEfficient ? this.poweredCutOfValue : Double.POSITIVE_INFINITY;
+        double sum = sum(one, data, offset, limit);
+        this.numDistances++;
+        if (sum > limit) {
+            this.numAbandoned++;
+            this.numAbandonedAttributes += this.abandonedAt;
+            return Double.MAX_VALUE;
+        }
+        return root(sum);
+    }
+
+    public int getNumDistances() {
+        return numDistances;
+    }
+
+    public int getNumAbandoned() {
+        return numAbandoned;
+    }
+
+    public long getNumAbandonedAttributes() {
+        return numAbandonedAttributes;
+    }
+
+    /**
+     * Returns the distance between the attribute values and the values
+     * stored in an array, never abandoning it.
+     */
+    double exactDistance(double[] one, double[] data, int offset) {
+        return root(sum(one, data, offset, Double.POSITIVE_INFINITY));
+    }
+
+    /**
+     * Returns the sum of the p-th powers of the differences (their maximum
+     * for L infinity), or a partial sum larger than the limit.
+     */
+    private double sum(double[] one, double[] data, int offset, double limit) {
+        switch (this.kernel) {
+            case L1:
+                return l1Sum(one, data, offset, limit);
+            case L2:
+                return l2Sum(one, data, offset, limit);
+            case L_INFINITY:
+                return lInfinityMax(one, data, offset, limit);
+            default:
+                return lpSum(one, data, offset, limit);
+        }
+    }
+
+    // the kernels add the terms in attribute order into a single sum, check
+    // the limit after every 4 attributes, and record where they abandoned
+
+    private double l1Sum(double[] one, double[] data, int offset, double limit) {
+        int n = one.length, i = 0;
+        double sum = 0.0;
+        for (; i + 4 <= n; i += 4) {
+            sum += Math.abs(one[i] - data[offset + i]);
+            sum += Math.abs(one[i + 1] - data[offset + i + 1]);
+            sum += Math.abs(one[i + 2] - data[offset + i + 2]);
+            sum += Math.abs(one[i + 3] - data[offset + i + 3]);
+            if (sum > limit) {
+                this.abandonedAt = i + 4;
+                return sum;
+            }
+        }
+        for (; i < n; i++) sum += Math.abs(one[i] - data[offset + i]);
+        return sum;
+    }
+
+    private double l2Sum(double[] one, double[] data, int offset, double limit) {
+        int n = one.length, i = 0;
+        double sum = 0.0, d0, d1, d2, d3;
+        for (; i + 4 <= n; i += 4) {
+            d0 = one[i] - data[offset + i];
+            d1 = one[i + 1] - data[offset + i + 1];
+            d2 = one[i + 2] - data[offset + i + 2];
+            d3 = one[i + 3] - data[offset + i + 3];
+            sum += d0 * d0;
+            sum += d1 * d1;
+            sum += d2 * d2;
+            sum += d3 * d3;
+            if (sum > limit) {
+                this.abandonedAt = i + 4;
+                return sum;
+            }
+        }
+        for (; i < n; i++) {
+            d0 = one[i] - data[offset + i];
+            sum += d0 * d0;
+        }
+        return sum;
+    }
+
+    private double lpSum(double[] one, double[] data, int offset, double limit) {
+        int n = one.length, i = 0;
+        double sum = 0.0;
+        for (; i + 4 <= n; i += 4) {
+            sum += term(one[i] - data[offset + i]);
+            sum += term(one[i + 1] - data[offset + i + 1]);
+            sum += term(one[i + 2] - data[offset + i + 2]);
+            sum += term(one[i + 3] - data[offset + i + 3]);
+            if (sum > limit) {
+                this.abandonedAt = i + 4;
+                return sum;
+            }
+        }
+        for (; i < n; i++) sum += term(one[i] - data[offset + i]);
+        return sum;
+    }
+
+    private double lInfinityMax(double[] one, double[] data, int offset, double limit) {
+        int n = one.length;
+        double absMax = 0.0, current;
+        for (int i = 0; i < n; i++) {
+            current = Math.abs(one[i] - data[offset + i]);
+            if (current > absMax) {
+                absMax = current;
+                if (absMax > limit) {
+                    this.abandonedAt = i + 1;
+                    return absMax;
+                }
+            }
+        }
+        return absMax;
+    }
+
+    /**
+     * Returns the term of a difference in the sum of the distance: its
+     * absolute value raised to p, or its absolute value for L infinity.
+     *
+     * @param difference
+     * @return
+     */
+    double term(double difference) {
+        double abs = Math.abs(difference);
+        switch (this.kernel) {
+            case L1:
+            case L_INFINITY:
+                return abs;
+            case L2:
+                return abs * abs;
+            case INTEGER_P:
+                double power = abs;
+                for (int i = 1; i < this.integerP; i++) power *= abs;
+                return power;
+            default:
+                return Math.pow(abs, this.p);
+        }
+    }
+
+    /**
+     * Combines the terms of a distance: their sum, or their maximum for L infinity.
+     */
+    double combine(double sum, double term) {
+        return (this.kernel == L_INFINITY) ? Math.max(sum, term) : sum + term;
+    }
+
+    /**
+     * Returns the distance of a sum of terms.
+     *
+     * @param sum
+     * @return
+     */
+    double root(double sum) {
+        switch (this.kernel) {
+            case L1:
+            case L_INFINITY:
+                return sum;
+            case L2:
+                return Math.sqrt(sum);
+            default:
+                return Math.pow(sum, 1 / this.p);
+        }
+    }
+
+    /**
+     * Returns a distance raised to p, the sum of terms it is the root of.
+     */
+    private double power(double distance) {
+        return (this.kernel == L_INFINITY) ? distance : term(distance);
+    }
+
+    /**
+     * Returns the Lp distance between 2 instances.
+     *
+     * @param one
+     * @param two
+     */
+    private double lpDistance(Instance one, Instance two) {
+        int n = one.numAttributes() - 1;
+        double sum = 0.0;
+
+        for (int i = 0; i < n; i++) {
+            sum += term(one.value(i) - two.value(i));
+            if (this.calcEfficient && sum > this.poweredCutOfValue) return Double.MAX_VALUE;
+        }
+        return root(sum);
+    }
+
+    /**
+     * Returns the L infinity distance between 2 instances.
+     *
+     * @param one
+     * @param two
+     * @return
+     */
+    private double lInfinityDistance(Instance one, Instance two) {
+        int n = one.numAttributes() - 1;
+        double absMax = 0.0;
+        double current;
+
+        for (int i = 0; i < n; i++) {
+            current = Math.abs(one.value(i) - two.value(i));
+            if (current > absMax) {
+                absMax = current;
+                if (this.calcEfficient && absMax > this.cutOfValue) return Double.MAX_VALUE;
+            }
+        }
+        return absMax;
+    }
+
+    /*
+    /**
+     * Returns the Lp distance between 2 instances, while using an efficient distance check.
+     *
+     * @param one
+     * @param two
+     * @return
+     *//*
+    private double efficientLpDistance(Instance one, Instance two) {
+        int n = one.numAttributes() - 1;
+        double sum = 0.0;
+
+        for (int i = 0; i < n; i++) {
+            sum += Math.pow(Math.abs(one.value(i) - two.value(i)), this.p);
+            if (sum >= this.cutOfValue) return Double.MAX_VALUE;
+        }
+        return Math.pow(sum, 1 / this.p);
+    }
+
+    /**
+     * Returns the Lp distance between 2 instances, while using an efficient distance check.
+     *
+     * @param one
+     * @param two
+     * @return
+     *//*
+    private double efficientLInfinityDistance(Instance one, Instance two) {
+        return 0.0;
+    }
+    */
+}
@@ -6,157 +6,116 @@ import weka.core.Instance;
 import weka.core.Instances;
 import weka.filters.Filter;
 import weka.filters.supervised.instance.StratifiedRemoveFolds;
-import java.util.*;
 
-class DistanceCalculator {
+import java.util.Arrays;
 
-    private double p;
-    private boolean calcEfficient;
-    private double cutOfValue;
+public class Knn implements Classifier {
 
-    public DistanceCalculator(double p, Knn.DistanceCheck distanceCheck) {
-        this.p = p;
-        this.calcEfficient = distanceCheck == Knn.DistanceCheck.Efficient;
-        this.cutOfValue = Double.MAX_VALUE;
-    }
+    public enum DistanceCheck {Regular, Efficient}
 
-    public void setCutOfValue(double cutOfValue) {
-        this.cutOfValue = cutOfValue;
-    }
+    public enum PredictionType {Uniform, Weighted}
 
     /**
-     * We leave it up to you wheter you want the distance method to get all relevant
-     * parameters(lp, efficient, etc..) or have it has a class variables.
+     * The spatial index searched for the neighbors: none for a linear scan,
+     * or auto for a kd-tree in low dimensions and a ball tree in higher ones.
      */
-    public double distance(Instance one, Instance two) {
-        if (p == Double.MAX_VALUE) return lInfinityDistance(one, two);
-        else return lpDistance(one, two);
-    }
+    public enum IndexType {None, KdTree, BallTree, Auto}
+
+    private Instances m_trainingInstances;
+    private SpatialIndex m_index;
+    // the attribute values of the training instances for the linear scan, when there is no index
+    private double[] m_points;
+    // the attributes in the order distances read them, highest variance first
+    private int[] m_attributeOrder;
+    private IndexType indexType = IndexType.Auto;
+    private int k;
+    private double p;
+    private DistanceCheck distanceCheck;
+    private PredictionType predictionType;
+    private boolean measureTime;
+    private long predictionRunTime;
+    // the neighbor heap and the query values of every thread, reused by all its queries
+    private final ThreadLocal<NeighborHeap> m_heaps = ThreadLocal.withInitial(NeighborHeap::new);
+    private final ThreadLocal<double[]> m_queries = ThreadLocal.withInitial(() -> new double[0]);
+    // the pruning of the last query of every thread
+    private final ThreadLocal<PruningStats> m_pruningStats = ThreadLocal.withInitial(PruningStats::new);
+    // the pruning rates of the queries measured with the prediction time
+    private double sumOfPruningRates;
+    private int numMeasuredQueries;
 
+    @Override
     /**
-     * Returns the Lp distance between 2 instances.
-     *
-     * @param one
-     * @param two
+     * Build the knn classifier. In our case, simply stores the given instances for 
+     * later use in the prediction.
+     * @param instances
      */
-    private double lpDistance(Instance one, Instance two) {
-        int n = one.numAttributes() - 1;
-        double sum = 0.0;
-        double poweredCutOfValue = 1.0;
-        if (this.calcEfficient) poweredCutOfValue = Math.pow(this.cutOfValue, p);
-
-        for (int i = 0; i < n; i++) {
-            sum += Math.pow(Math.abs(one.value(i) - two.value(i)), this.p);
-            if (this.calcEfficient && sum >= poweredCutOfValue) return Double.MAX_VALUE;
-        }
-        return Math.pow(sum, 1 / this.p);
+    public void buildClassifier(Instances instances) throws Exception {
+        setTrainingInstances(instances);
+        this.predictionType = PredictionType.Uniform;
+        this.distanceCheck = DistanceCheck.Regular;
+        this.measureTime = false;
     }
 
     /**
-     * Returns the L infinity distance between 2 instances.
+     * Sets the instances the neighbors are searched in, with their index.
      *
-     * @param one
-     * @param two
-     * @return
+     * @param instances
      */
-    private double lInfinityDistance(Instance one, Instance two) {
-        int n = one.numAttributes() - 1;
-        double absMax = 0.0;
-        double current;
-
-        for (int i = 0; i < n; i++) {
-            current = Math.abs(one.value(i) - two.value(i));
-            if (current > absMax) {
-                absMax = current;
-                if (this.calcEfficient && absMax >= this.cutOfValue) return Double.MAX_VALUE;
-            }
-        }
-        return absMax;
+    private void setTrainingInstances(Instances instances) {
+        this.m_trainingInstances = instances;
+        this.m_attributeOrder = attributeOrder(instances);
+        this.m_index = SpatialIndex.build(instances, this.indexType, this.m_attributeOrder);
+        this.m_points = (this.m_index == null) ? attributeValues(instances, this.m_attributeOrder) : null;
     }
 
-    /*
     /**
-     * Returns the Lp distance between 2 instances, while using an efficient distance check.
+     * Returns the attributes besides the class by decreasing variance of
+     * the values the distance reads (the index of a nominal value). The
+     * attributes with the largest differences come first, so the efficient
+     * check passes the cut off after fewer of them.
      *
-     * @param one
-     * @param two
+     * @param instances
      * @return
-     *//*
-    private double efficientLpDistance(Instance one, Instance two) {
-        int n = one.numAttributes() - 1;
-        double sum = 0.0;
-
-        for (int i = 0; i < n; i++) {
-            sum += Math.pow(Math.abs(one.value(i) - two.value(i)), this.p);
-            if (sum >= this.cutOfValue) return Double.MAX_VALUE;
+     */
+    static int[] attributeOrder(Instances instances) {
+        int n = instances.numAttributes() - 1;
+        double[] variances = new double[n];
+        for (int d = 0; d < n; d++) {
+            double sum = 0, sumOfSquares = 0, value;
+            int count = 0;
+            for (int i = 0; i < instances.numInstances(); i++) {
+                value = instances.instance(i).value(d);
+                if (Double.isNaN(value)) continue;
+                sum += value;
+                sumOfSquares += value * value;
+                count++;
+            }
+            if (count > 0) variances[d] = sumOfSquares / count - (sum / count) * (sum / count);
         }
-        return Math.pow(sum, 1 / this.p);
+        Integer[] order = new Integer[n];
+        for (int d = 0; d < n; d++) order[d] = d;
+        // a stable sort keeps attributes of equal variance in their order
+        Arrays.sort(order, (a, b) -> Double.compare(variances[b], variances[a]));
+        int[] attributeOrder = new int[n];
+        for (int d = 0; d < n; d++) attributeOrder[d] = order[d];
+        return attributeOrder;
     }
 
     /**
-     * Returns the Lp distance between 2 instances, while using an efficient distance check.
+     * Returns the attribute values of all the instances in one array, the
+     * values of every instance without its class one after another, in the
+     * given attribute order.
      *
-     * @param one
-     * @param two
-     * @return
-     *//*
-    private double efficientLInfinityDistance(Instance one, Instance two) {
-        return 0.0;
-    }
-    */
-}
-
-class NeighborComparator implements Comparator<Neighbor> {
-
-    @Override
-    public int compare(Neighbor a, Neighbor b) {
-        return b.distance.compareTo(a.distance);
-    }
-}
-
-class Neighbor {
-    Instance instance = null;
-    Double distance = 0.0;
-
-    public Neighbor (Instance instance, Double distance) {
-        this.instance = instance;
-        this.distance = distance;
-    }
-
-    public void setDistance(Double distance) {
-        this.distance = distance;
-    }
-
-    public void setInstance(Instance instance) {
-        this.instance = instance;
-    }
-}
-
-public class Knn implements Classifier {
-
-    public enum DistanceCheck {Regular, Efficient}
-
-    public enum PredictionType {Uniform, Weighted}
-
-    private Instances m_trainingInstances;
-    private int k;
-    private double p;
-    private DistanceCheck distanceCheck;
-    private PredictionType predictionType;
-    private boolean measureTime;
-    private long predictionRunTime;
-
-    @Override
-    /**
-     * Build the knn classifier. In our case, simply stores the given instances for 
-     * later use in the prediction.
      * @param instances
+     * @param attributeOrder
+     * @return
      */
-    public void buildClassifier(Instances instances) throws Exception {
-        this.m_trainingInstances = instances;
-        this.predictionType = PredictionType.Uniform;
-        this.distanceCheck = DistanceCheck.Regular;
-        this.measureTime = false;
+    static double[] attributeValues(Instances instances, int[] attributeOrder) {
+        int n = attributeOrder.length;
+        double[] values = new double[instances.numInstances() * n];
+        for (int i = 0; i < instances.numInstances(); i++)
+            for (int d = 0; d < n; d++) values[i * n + d] = instances.instance(i).value(attributeOrder[d]);
+        return values;
     }
 
     public void setK(int k) {
@@ -165,6 +124,7 @@ public class Knn implements Classifier {
 
     public void setP(double p) {
         this.p = p;
+        if (this.m_index != null) this.m_index.prepare(p);
     }
 
     public void setDistanceCheck(DistanceCheck distanceCheck) {
@@ -175,6 +135,15 @@ public class Knn implements Classifier {
         this.predictionType = predictionType;
     }
 
+    /**
+     * Sets the index used from the next training on.
+     *
+     * @param indexType
+     */
+    public void setIndexType(IndexType indexType) {
+        this.indexType = indexType;
+    }
+
     public void setMeasureTime(boolean measureTime) {
         this.measureTime = measureTime;
     }
@@ -183,6 +152,16 @@ public class Knn implements Classifier {
         return predictionRunTime;
     }
 
+    /**
+     * Returns the average pruning rate of the queries of the last cross
+     * validation measured with the prediction time.
+     *
+     * @return
+     */
+    public double getAveragePruningRate() {
+        return (this.numMeasuredQueries == 0) ? 0 : this.sumOfPruningRates / this.numMeasuredQueries;
+    }
+
     /**
      * Returns the knn prediction on the given instance.
      *
@@ -191,7 +170,11 @@ public class Knn implements Classifier {
      */
     public double regressionPrediction(Instance instance) {
         double prediction;
-        PriorityQueue<Neighbor> kNN = findNearestNeighbors(instance);
+        NeighborHeap kNN = findNearestNeighbors(instance);
+        if (this.measureTime) {
+            this.sumOfPruningRates += getLastPruningStats().getPruningRate();
+            this.numMeasuredQueries++;
+        }
         switch (this.predictionType){
             case Weighted:
                 prediction = getWeightedAverageValue(kNN);
@@ -237,10 +220,17 @@ public class Knn implements Classifier {
         StratifiedRemoveFolds foldsFilter = new StratifiedRemoveFolds();
         foldsFilter.setNumFolds(num_of_folds);
         Instances initialClassMember = this.m_trainingInstances;
+        SpatialIndex initialIndex = this.m_index;
+        double[] initialPoints = this.m_points;
+        int[] initialAttributeOrder = this.m_attributeOrder;
         Instances validationFold;
         double sumOfFoldsErrors = 0.0;
         long predictionClock = 0;
-        if (this.measureTime) this.predictionRunTime = 0;
+        if (this.measureTime) {
+            this.predictionRunTime = 0;
+            this.sumOfPruningRates = 0;
+            this.numMeasuredQueries = 0;
+        }
 
         for (int i = 1; i <= num_of_folds; i++) {
             foldsFilter.setFold(i); // focus on fold 'i'
@@ -248,7 +238,8 @@ public class Knn implements Classifier {
             // set the rest of the data ("training data")
             foldsFilter.setInvertSelection(true);
             foldsFilter.setInputFormat(instances);
-            this.m_trainingInstances = Filter.useFilter(instances, foldsFilter);
+            setTrainingInstances(Filter.useFilter(instances, foldsFilter));
+            if (this.m_index != null) this.m_index.prepare(this.p);
 
             // set the validation data part
             foldsFilter.setInvertSelection(false);
@@ -266,50 +257,82 @@ public class Knn implements Classifier {
         }
 
         this.m_trainingInstances = initialClassMember; // return the class member to initial value
+        this.m_index = initialIndex;
+        this.m_points = initialPoints;
+        this.m_attributeOrder = initialAttributeOrder;
 
         return sumOfFoldsErrors / num_of_folds;
     }
 
 
     /**
-     * Finds the k nearest neighbors.
+     * Finds the k nearest neighbors, through the spatial index when the
+     * training instances have one.
+     * The neighbors are returned in the heap of the current thread, which
+     * is reused by its next query.
+     *
+     * @param instance
+     */
+    public NeighborHeap findNearestNeighbors(Instance instance) {
+        NeighborHeap kNN = this.m_heaps.get();
+        findNearestNeighbors(instance, kNN);
+        return kNN;
+    }
+
+    /**
+     * Finds the k nearest neighbors into the given heap.
      *
      * @param instance
+     * @param kNN
      */
-    public PriorityQueue<Neighbor> findNearestNeighbors(Instance instance) {
-        PriorityQueue<Neighbor> kNN = new PriorityQueue<>(new NeighborComparator());
+    public void findNearestNeighbors(Instance instance, NeighborHeap kNN) {
+        kNN.clear(this.k);
+        double[] query = this.m_queries.get();
+        if (query.length != instance.numAttributes() - 1) {
+            query = new double[instance.numAttributes() - 1];
+            this.m_queries.set(query);
+        }
+        for (int i = 0; i < query.length; i++) query[i] = instance.value(this.m_attributeOrder[i]);
 
         DistanceCalculator dc = new DistanceCalculator
                 (this.p, this.distanceCheck);
 
-        double distance;
-        Neighbor furthest, neighbor;
+        if (this.m_index != null) {
+            this.m_index.findNearestNeighbors(query, dc, kNN);
+            this.m_pruningStats.get().record(this.m_trainingInstances.numInstances(), query.length, dc);
+            return;
+        }
 
+        double distance;
+        int n = query.length;
 
         // adds all first k instances to the mapping
         for (int i = 0; i < k; i++) {
-            distance = dc.distance(instance, this.m_trainingInstances.instance(i));
-            neighbor = new Neighbor(this.m_trainingInstances.instance(i), distance);
-            kNN.add(neighbor);
+            distance = dc.distance(query, this.m_points, i * n);
+            kNN.add(i, distance);
         }
 
-        furthest = kNN.peek();
-        dc.setCutOfValue(furthest.distance);
+        dc.setCutOfValue(kNN.topDistance());
 
-        // replace the furthest neighbor if necessary
+        // replace the furthest neighbor if necessary, a later instance as far never does
         for (int i = k; i < this.m_trainingInstances.numInstances(); i++) {
-            distance = dc.distance(instance, this.m_trainingInstances.instance(i));
-
-            if (distance < furthest.distance) {
-                kNN.remove(furthest);
-                neighbor = new Neighbor(this.m_trainingInstances.instance(i), distance);
-                kNN.add(neighbor);
-                furthest = kNN.peek();
-                dc.setCutOfValue(furthest.distance);
+            distance = dc.distance(query, this.m_points, i * n);
+
+            if (distance < kNN.topDistance()) {
+                kNN.replaceTop(i, distance);
+                dc.setCutOfValue(kNN.topDistance());
             }
         }
+        this.m_pruningStats.get().record(this.m_trainingInstances.numInstances(), n, dc);
+    }
 
-        return kNN;
+    /**
+     * Returns the pruning of the last query of the current thread.
+     *
+     * @return
+     */
+    public PruningStats getLastPruningStats() {
+        return this.m_pruningStats.get();
     }
 
 
@@ -319,10 +342,10 @@ public class Knn implements Classifier {
      * @param
      * @return
      */
-    public double getAverageValue(PriorityQueue<Neighbor> neighbors) {
+    public double getAverageValue(NeighborHeap neighbors) {
         double sum = 0.0;
-        for (Neighbor neighbor : neighbors)
-            sum += neighbor.instance.value(neighbor.instance.classIndex());
+        for (int i = 0; i < neighbors.size(); i++)
+            sum += this.m_trainingInstances.instance(neighbors.index(i)).classValue();
 
         return sum / neighbors.size();
     }
@@ -330,24 +353,30 @@ public class Knn implements Classifier {
     /**
      * Calculates the weighted average of the target values of all the elements in the collection
      * with respect to their distance from a specific instance.
+     * A neighbor at distance 0 decides alone, the earliest one in the training instances if there are several.
      *
      * @return
      */
-    public double getWeightedAverageValue(PriorityQueue<Neighbor> neighbors) {
+    public double getWeightedAverageValue(NeighborHeap neighbors) {
         double weight, value, distance;
         double sumOfWeights = 0.0;
         double sumOfWeightedValues = 0.0;
+        int exact = -1;
 
-        for (Neighbor neighbor : neighbors) {
-            distance = neighbor.distance;
-            value = neighbor.instance.value(neighbor.instance.classIndex());
-            if (distance == 0) return value;
+        for (int i = 0; i < neighbors.size(); i++) {
+            distance = neighbors.distance(i);
+            if (distance == 0) {
+                if (exact == -1 || neighbors.index(i) < exact) exact = neighbors.index(i);
+                continue;
+            }
+            value = this.m_trainingInstances.instance(neighbors.index(i)).classValue();
             weight = 1 / Math.pow(distance, 2);
 
             sumOfWeights += weight;
             sumOfWeightedValues += weight * value;
         }
 
+        if (exact != -1) return this.m_trainingInstances.instance(exact).classValue();
         return sumOfWeightedValues / sumOfWeights;
     }
 
@@ -92,7 +92,8 @@ public class MainHW3 {
                 predictionRunTime = knn.getPredictionRunTime();
                 results.append("Cross validation error of " + dc + " knn on auto_price dataset is " + error +
                         "\nThe average elapsed time is: " + (predictionRunTime / folds) + " ns" +
-                        "\nThe total elapsed time is: " + predictionRunTime + " ns\n\n");
+                        "\nThe total elapsed time is: " + predictionRunTime + " ns" +
+                        "\nThe average pruning rate per query is: " + knn.getAveragePruningRate() + "\n\n");
             }
         }
     }
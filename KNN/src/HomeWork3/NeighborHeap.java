@@ -0,0 +1,114 @@
+package HomeWork3;
+
+/**
+ * A bounded max heap of the nearest neighbors found so far, kept in
+ * parallel primitive arrays: the index of a neighbor in the training
+ * instances and its distance. The furthest neighbor is at the top, and of
+ * equally far neighbors the latest in the training instances, so a closer
+ * candidate replaces the top in O(log k) without allocating anything.
+ * A heap is reused by all the queries of a thread.
+ */
+class NeighborHeap {
+    private int[] indices = new int[0];
+    private double[] distances = new double[0];
+    private int size;
+    private int capacity;
+
+    /**
+     * Empties the heap for a query of k neighbors.
+     *
+     * @param k
+     */
+    public void clear(int k) {
+        if (this.indices.length < k) {
+            this.indices = new int[k];
+            this.distances = new double[k];
+        }
+        this.size = 0;
+        this.capacity = k;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isFull() {
+        return this.size == this.capacity;
+    }
+
+    public int index(int i) {
+        return this.indices[i];
+    }
+
+    public double distance(int i) {
+        return this.distances[i];
+    }
+
+    /**
+     * Returns the distance of the furthest neighbor.
+     *
+     * @return
+     */
+    public double topDistance() {
+        return this.distances[0];
+    }
+
+    public int topIndex() {
+        return this.indices[0];
+    }
+
+    /**
+     * Adds the neighbor if the heap is not full, or replaces the furthest
+     * neighbor if the new one is closer.
+     *
+     * @param index    - the index of the neighbor in the training instances
+     * @param distance
+     */
+    public void offer(int index, double distance) {
+        if (this.size < this.capacity) add(index, distance);
+        else if (this.capacity > 0 && isCloser(index, distance, 0)) replaceTop(index, distance);
+    }
+
+    /**
+     * Adds a neighbor to a heap which is not full.
+     */
+    public void add(int index, double distance) {
+        int i = this.size++, parent;
+        while (i > 0 && isCloser(this.indices[parent = (i - 1) >>> 1], this.distances[parent], index, distance)) {
+            this.indices[i] = this.indices[parent];
+            this.distances[i] = this.distances[parent];
+            i = parent;
+        }
+        this.indices[i] = index;
+        this.distances[i] = distance;
+    }
+
+    /**
+     * Replaces the furthest neighbor, and sifts the new one down to its place.
+     */
+    public void replaceTop(int index, double distance) {
+        int i = 0, child;
+        while ((child = 2 * i + 1) < this.size) {
+            if (child + 1 < this.size && isCloser(this.indices[child], this.distances[child],
+                    this.indices[child + 1], this.distances[child + 1])) child++;
+            if (!isCloser(index, distance, this.indices[child], this.distances[child])) break;
+            this.indices[i] = this.indices[child];
+            this.distances[i] = this.distances[child];
+            i = child;
+        }
+        this.indices[i] = index;
+        this.distances[i] = distance;
+    }
+
+    private boolean isCloser(int index, double distance, int i) {
+        return isCloser(index, distance, this.indices[i], this.distances[i]);
+    }
+
+    /**
+     * Returns true if the first neighbor comes before the second: it is
+     * closer, or as close and earlier in the training instances.
+     */
+    private static boolean isCloser(int index, double distance, int otherIndex, double otherDistance) {
+        return distance < otherDistance || (distance == otherDistance && index < otherIndex);
+    }
+}
@@ -0,0 +1,61 @@
+package HomeWork3;
+
+/**
+ * How much of the work of a query was pruned: the training instances
+ * skipped by the index without a distance, and the distances abandoned by
+ * the efficient check after reading only some of the attributes.
+ */
+class PruningStats {
+    int numCandidates;
+    int numAttributes;
+    int numDistances;
+    int numAbandoned;
+    long numAbandonedAttributes;
+
+    /**
+     * Records the query of a distance calculator.
+     *
+     * @param numCandidates - the number of training instances
+     * @param numAttributes - the number of attributes of a distance
+     * @param dc
+     */
+    void record(int numCandidates, int numAttributes, DistanceCalculator dc) {
+        this.numCandidates = numCandidates;
+        this.numAttributes = numAttributes;
+        this.numDistances = dc.getNumDistances();
+        this.numAbandoned = dc.getNumAbandoned();
+        this.numAbandonedAttributes = dc.getNumAbandonedAttributes();
+    }
+
+    /**
+     * Returns the fraction of the training instances rejected without a full
+     * distance, skipped by the index or abandoned.
+     *
+     * @return
+     */
+    public double getPruningRate() {
+        if (this.numCandidates == 0) return 0;
+        return (double) (this.numCandidates - (this.numDistances - this.numAbandoned)) / this.numCandidates;
+    }
+
+    /**
+     * Returns the average number of attributes read by an abandoned distance.
+     *
+     * @return
+     */
+    public double getAttributesPerAbandoned() {
+        return (this.numAbandoned == 0) ? 0 : (double) this.numAbandonedAttributes / this.numAbandoned;
+    }
+
+    /**
+     * Returns the fraction of the attributes of all the training instances
+     * that were read.
+     *
+     * @return
+     */
+    public double getAttributesReadRate() {
+        if (this.numCandidates == 0 || this.numAttributes == 0) return 0;
+        long read = (long) (this.numDistances - this.numAbandoned) * this.numAttributes + this.numAbandonedAttributes;
+        return (double) read / ((long) this.numCandidates * this.numAttributes);
+    }
+}
@@ -0,0 +1,369 @@
+package HomeWork3;
+
+import weka.core.Instances;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A spatial index over the training instances, answering the same k nearest
+ * neighbors query as the linear scan of Knn without computing the distance
+ * to every instance.
+ * The instances are copied into one array, reordered so every node of the
+ * tree covers a contiguous range of them. A node is skipped when a lower
+ * bound of the distance from the query to its instances is larger than the
+ * distance to the current k-th neighbor, and the nearer child is searched
+ * first so the k-th distance shrinks early.
+ * Neighbors are ordered by distance, then by their index in the training
+ * instances, so the result does not depend on the order of the search.
+ */
+abstract class SpatialIndex {
+    // the largest number of instances in a leaf
+    static final int LEAF_SIZE = 16;
+    // up to this number of dimensions a kd-tree is built, above it a ball tree
+    static final int KD_TREE_MAX_DIMENSIONS = 10;
+
+    final int m_numDimensions;
+    // the attribute values of the instances in tree order, m_numDimensions per instance
+    final double[] m_points;
+    // per instance in tree order: its index in the training instances
+    final int[] m_indices;
+    // per node: the range of its instances in tree order, and its children (-1 for a leaf)
+    int[] m_starts;
+    int[] m_ends;
+    int[] m_lefts;
+    int[] m_rights;
+    int m_numNodes;
+
+    SpatialIndex(Instances instances, int[] attributeOrder) {
+        m_numDimensions = instances.numAttributes() - 1;
+        int n = instances.numInstances();
+        m_points = Knn.attributeValues(instances, attributeOrder);
+        m_indices = new int[n];
+        for (int i = 0; i < n; i++) m_indices[i] = i;
+        // a split node holds more than LEAF_SIZE instances, so a leaf holds at least half of it
+        int maxNodes = 2 * (n / (LEAF_SIZE / 2) + 1);
+        m_starts = new int[maxNodes];
+        m_ends = new int[maxNodes];
+        m_lefts = new int[maxNodes];
+        m_rights = new int[maxNodes];
+    }
+
+    /**
+     * Builds the index the type asks for, or null when the instances can not
+     * be indexed (no instances, or missing values).
+     *
+     * @param instances
+     * @param indexType
+     * @param attributeOrder - the order of the attributes in the points, and in the queries
+     * @return
+     */
+    static SpatialIndex build(Instances instances, Knn.IndexType indexType, int[] attributeOrder) {
+        if (indexType == Knn.IndexType.None || instances.numInstances() == 0) return null;
+        for (int i = 0; i < instances.numInstances(); i++)
+            for (int d = 0; d < instances.numAttributes() - 1; d++)
+                if (instances.instance(i).isMissing(d)) return null;
+
+        boolean kdTree = (indexType == Knn.IndexType.Auto)
+                ? instances.numAttributes() - 1 <= KD_TREE_MAX_DIMENSIONS
+                : indexType == Knn.IndexType.KdTree;
+        SpatialIndex index = kdTree ? new KdTree(instances, attributeOrder) : new BallTree(instances, attributeOrder);
+        index.buildNode(0, instances.numInstances());
+        return index;
+    }
+
+    /**
+     * Creates the node of the instances in the range, and its subtree.
+     *
+     * @return the node
+     */
+    private int buildNode(int start, int end) {
+        int node = m_numNodes++;
+        m_starts[node] = start;
+        m_ends[node] = end;
+        m_lefts[node] = -1;
+        m_rights[node] = -1;
+        describe(node, start, end);
+        int middle = (end - start > LEAF_SIZE) ? split(node, start, end) : -1;
+        if (middle != -1) {
+            m_lefts[node] = buildNode(start, middle);
+            m_rights[node] = buildNode(middle, end);
+        }
+        return node;
+    }
+
+    /**
+     * Describes the instances of the node for its lower bound.
+     */
+    abstract void describe(int node, int start, int end);
+
+    /**
+     * Reorders the instances of the node into the halves of its children.
+     *
+     * @return the start of the second child, or -1 if the instances are all the same point
+     */
+    abstract int split(int node, int start, int end);
+
+    /**
+     * Returns a lower bound of the distance from the query to every instance of the node.
+     *
+     * @param dc - the distance calculator of the metric
+     */
+    abstract double lowerBound(int node, double[] query, DistanceCalculator dc);
+
+    /**
+     * Calculates ahead what the queries of the metric need, outside of the
+     * time of the first query.
+     *
+     * @param p
+     */
+    void prepare(double p) {
+    }
+
+    /**
+     * Finds the nearest neighbors of the query, as many as the heap holds.
+     * With the efficient check, the cut off of the calculator follows the
+     * distance of the furthest neighbor once the heap is full.
+     *
+     * @param query - the attribute values of the query, without the class
+     * @param dc    - the distance calculator of the query
+     * @param kNN   - an empty heap
+     */
+    void findNearestNeighbors(double[] query, DistanceCalculator dc, NeighborHeap kNN) {
+        if (!kNN.isFull()) search(0, lowerBound(0, query, dc), query, dc, kNN);
+    }
+
+    private void search(int node, double nodeBound, double[] query, DistanceCalculator dc, NeighborHeap kNN) {
+        // a node at exactly the k-th distance may hold a tie with a smaller index
+        if (kNN.isFull() && nodeBound > kNN.topDistance()) return;
+        if (m_lefts[node] == -1) {
+            for (int i = m_starts[node]; i < m_ends[node]; i++) {
+                kNN.offer(m_indices[i], dc.distance(query, m_points, i * m_numDimensions));
+                if (kNN.isFull() && kNN.topDistance() != dc.getCutOfValue()) dc.setCutOfValue(kNN.topDistance());
+            }
+            return;
+        }
+
+        int near = m_lefts[node], far = m_rights[node];
+        double nearBound = lowerBound(near, query, dc), farBound = lowerBound(far, query, dc);
+        if (farBound < nearBound) {
+            near = m_rights[node];
+            far = m_lefts[node];
+            double bound = nearBound;
+            nearBound = farBound;
+            farBound = bound;
+        }
+        search(near, nearBound, query, dc, kNN);
+        search(far, farBound, query, dc, kNN);
+    }
+
+    /**
+     * Splits the range at its median key, or returns -1 if all the keys are the same.
+     *
+     * @param keys - per instance of the range
+     * @return the start of the second half
+     */
+    int splitAtMedian(int start, int end, double[] keys) {
+        double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY;
+        for (double key : keys) {
+            if (key < low) low = key;
+            if (key > high) high = key;
+        }
+        if (!(high > low)) return -1;
+        int middle = (start + end) >>> 1;
+        select(start, end, middle, keys);
+        return middle;
+    }
+
+    /**
+     * Swaps two instances of the tree order.
+     */
+    void swap(int i, int j) {
+        int index = m_indices[i];
+        m_indices[i] = m_indices[j];
+        m_indices[j] = index;
+        double value;
+        for (int d = 0; d < m_numDimensions; d++) {
+            value = m_points[i * m_numDimensions + d];
+            m_points[i * m_numDimensions + d] = m_points[j * m_numDimensions + d];
+            m_points[j * m_numDimensions + d] = value;
+        }
+    }
+
+    /**
+     * Reorders the range so the instance at the middle has the middle key,
+     * with no larger keys before it and no smaller after it.
+     */
+    private void select(int start, int end, int middle, double[] keys) {
+        int low = start, high = end - 1;
+        double key;
+        while (low < high) {
+            double pivot = keys[((low + high) >>> 1) - start];
+            int i = low, j = high;
+            while (i <= j) {
+                while (keys[i - start] < pivot) i++;
+                while (keys[j - start] > pivot) j--;
+                if (i <= j) {
+                    key = keys[i - start];
+                    keys[i - start] = keys[j - start];
+                    keys[j - start] = key;
+                    swap(i++, j--);
+                }
+            }
+            if (middle <= j) high = j;
+            else if (middle >= i) low = i;
+            else return;
+        }
+    }
+
+    /**
+     * A kd-tree: every node keeps the bounding box of its instances, and is
+     * split at the median of the dimension with the widest spread. The lower
+     * bound is the distance to the box, calculated like the distance itself
+     * so rounding never makes it larger than the distance to an instance.
+     */
+    static class KdTree extends SpatialIndex {
+        // per node and dimension: the bounding box
+        private final double[] m_lows;
+        private final double[] m_highs;
+
+        KdTree(Instances instances, int[] attributeOrder) {
+            super(instances, attributeOrder);
+            m_lows = new double[m_starts.length * m_numDimensions];
+            m_highs = new double[m_starts.length * m_numDimensions];
+        }
+
+        @Override
+        void describe(int node, int start, int end) {
+            int box = node * m_numDimensions;
+            for (int d = 0; d < m_numDimensions; d++) {
+                double low = Double.POSITIVE_INFINITY, high = Double.NEGATIVE_INFINITY, value;
+                for (int i = start; i < end; i++) {
+                    value = m_points[i * m_numDimensions + d];
+                    if (value < low) low = value;
+                    if (value > high) high = value;
+                }
+                m_lows[box + d] = low;
+                m_highs[box + d] = high;
+            }
+        }
+
+        @Override
+        int split(int node, int start, int end) {
+            int box = node * m_numDimensions, widest = 0;
+            for (int d = 1; d < m_numDimensions; d++)
+                if (m_highs[box + d] - m_lows[box + d] > m_highs[box + widest] - m_lows[box + widest]) widest = d;
+            double[] keys = new double[end - start];
+            for (int i = start; i < end; i++) keys[i - start] = m_points[i * m_numDimensions + widest];
+            return splitAtMedian(start, end, keys);
+        }
+
+        @Override
+        double lowerBound(int node, double[] query, DistanceCalculator dc) {
+            int box = node * m_numDimensions;
+            double gap, sum = 0.0;
+            for (int d = 0; d < m_numDimensions; d++) {
+                gap = Math.max(0, Math.max(m_lows[box + d] - query[d], query[d] - m_highs[box + d]));
+                sum = dc.combine(sum, dc.term(gap));
+            }
+            return dc.root(sum);
+        }
+    }
+
+    /**
+     * A ball tree: every node keeps the mean of its instances and the
+     * distance to the furthest one, and is split at the median of the
+     * instances' projections on a line through two far apart ones. The lower bound follows from the
+     * triangle inequality, less a rounding slack so ties are still searched.
+     * The radius depends on the metric, so the radii of every p are
+     * calculated when it is prepared, or on its first query.
+     */
+    static class BallTree extends SpatialIndex {
+        private static final double ROUNDING_SLACK = 1e-9;
+
+        // per node and dimension: the center of the ball
+        private final double[] m_centers;
+        // per p: the radius of every node
+        private final ConcurrentMap<Double, double[]> m_radii = new ConcurrentHashMap<>();
+
+        BallTree(Instances instances, int[] attributeOrder) {
+            super(instances, attributeOrder);
+            m_centers = new double[m_starts.length * m_numDimensions];
+        }
+
+        @Override
+        void describe(int node, int start, int end) {
+            int center = node * m_numDimensions;
+            for (int d = 0; d < m_numDimensions; d++) {
+                double sum = 0;
+                for (int i = start; i < end; i++) sum += m_points[i * m_numDimensions + d];
+                m_centers[center + d] = sum / (end - start);
+            }
+        }
+
+        /**
+         * Splits the instances along the line between two far apart
+         * instances: the furthest from the center, and the furthest from it.
+         */
+        @Override
+        int split(int node, int start, int end) {
+            int first = furthest(m_centers, node * m_numDimensions, start, end);
+            int second = furthest(m_points, first * m_numDimensions, start, end);
+            double[] keys = new double[end - start];
+            for (int i = start; i < end; i++) {
+                double key = 0;
+                for (int d = 0; d < m_numDimensions; d++)
+                    key += (m_points[i * m_numDimensions + d] - m_points[first * m_numDimensions + d])
+                            * (m_points[second * m_numDimensions + d] - m_points[first * m_numDimensions + d]);
+                keys[i - start] = key;
+            }
+            return splitAtMedian(start, end, keys);
+        }
+
+        /**
+         * Returns the instance of the range furthest from a point, in euclidean distance.
+         */
+        private int furthest(double[] data, int offset, int start, int end) {
+            int furthest = start;
+            double max = -1, sum, diff;
+            for (int i = start; i < end; i++) {
+                sum = 0;
+                for (int d = 0; d < m_numDimensions; d++) {
+                    diff = m_points[i * m_numDimensions + d] - data[offset + d];
+                    sum += diff * diff;
+                }
+                if (sum > max) {
+                    max = sum;
+                    furthest = i;
+                }
+            }
+            return furthest;
+        }
+
+        @Override
+        double lowerBound(int node, double[] query, DistanceCalculator dc) {
+            double toCenter = dc.exactDistance(query, m_centers, node * m_numDimensions);
+            double radius = radii(dc.getP())[node];
+            return (toCenter - radius) - ROUNDING_SLACK * (toCenter + radius);
+        }
+
+        @Override
+        void prepare(double p) {
+            radii(p);
+        }
+
+        private double[] radii(double p) {
+            return m_radii.computeIfAbsent(p, key -> {
+                DistanceCalculator dc = new DistanceCalculator(key, Knn.DistanceCheck.Regular);
+                double[] radii = new double[m_numNodes];
+                double[] center = new double[m_numDimensions];
+                for (int node = 0; node < m_numNodes; node++) {
+                    System.arraycopy(m_centers, node * m_numDimensions, center, 0, m_numDimensions);
+                    for (int i = m_starts[node]; i < m_ends[node]; i++)
+                        radii[node] = Math.max(radii[node], dc.exactDistance(center, m_points, i * m_numDimensions));
+                }
+                return radii;
+            });
+        }
+    }
+}
@@ -0,0 +1,44 @@
+/**
+ * Adam: step sizes adapted per coefficient from running moments of the gradient.
+ */
+class AdamOptimizer extends Optimizer {
+
+    private static final double BETA1 = 0.9;
+    private static final double BETA2 = 0.999;
+    private static final double EPSILON = 1e-8;
+
+    private final double m_learningRate;
+    private double[] m_firstMoment;
+    private double[] m_secondMoment;
+    private double[] m_gradient;
+    private double m_beta1Power, m_beta2Power;
+
+    public AdamOptimizer(double learningRate) {
+        this.m_learningRate = learningRate;
+    }
+
+    @Override
+    protected void init(int numCoefficients) {
+        m_firstMoment = new double[numCoefficients];
+        m_secondMoment = new double[numCoefficients];
+        m_gradient = new double[numCoefficients];
+        m_beta1Power = 1;
+        m_beta2Power = 1;
+    }
+
+    @Override
+    protected double iterate(GradientEngine engine, double[] theta, int[] indices) {
+        double loss = engine.gradient(theta, m_gradient);
+        double g;
+        m_beta1Power *= BETA1;
+        m_beta2Power *= BETA2;
+        for (int t : indices) {
+            g = m_gradient[t];
+            m_firstMoment[t] = BETA1 * m_firstMoment[t] + (1 - BETA1) * g;
+            m_secondMoment[t] = BETA2 * m_secondMoment[t] + (1 - BETA2) * g * g;
+            theta[t] -= m_learningRate * (m_firstMoment[t] / (1 - m_beta1Power))
+                    / (Math.sqrt(m_secondMoment[t] / (1 - m_beta2Power)) + EPSILON);
+        }
+        return loss;
+    }
+}
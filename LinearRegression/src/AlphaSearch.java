@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Searches for the learning rate of gradient descent by successive halving.
+ * All the candidates run concurrently on their own coefficients for a short
+ * budget of iterations, then the worse half is dropped and the budget of the
+ * rest is doubled, until a single candidate is left.
+ * As in LinearRegression#findAlpha(), the error is checked every 100
+ * iterations and a candidate stops once its error rises.
+ */
+public class AlphaSearch {
+
+    private static final int CHECK_INTERVAL = 100;
+    private static final int MAX_ITERATIONS = 20000;
+
+    private final GradientEngine m_engine;
+    private final int m_numCoefficients;
+    private int m_initialBudget = 300;
+
+    /**
+     * @param engine          - the snapshot of the training data
+     * @param numCoefficients - the length of the coefficients vector
+     */
+    public AlphaSearch(GradientEngine engine, int numCoefficients) {
+        this.m_engine = engine;
+        this.m_numCoefficients = numCoefficients;
+    }
+
+    /**
+     * Sets the number of iterations every candidate runs before the first
+     * halving, rounded up to a multiple of 100.
+     *
+     * @param initialBudget
+     */
+    public void setInitialBudget(int initialBudget) {
+        if (initialBudget < 1) throw new IllegalArgumentException("initialBudget must be positive: " + initialBudget);
+        this.m_initialBudget = ((initialBudget + CHECK_INTERVAL - 1) / CHECK_INTERVAL) * CHECK_INTERVAL;
+    }
+
+    /**
+     * Runs the search over the given learning rates.
+     *
+     * @param alphas   - the candidates, on equal errors the first one is preferred
+     * @param executor - runs the candidates, null to run them one after another
+     * @return the winning candidate
+     * @throws Exception
+     */
+    public Candidate search(double[] alphas, ExecutorService executor) throws Exception {
+        List<Candidate> alive = new ArrayList<>();
+        for (int i = 0; i < alphas.length; i++) alive.add(new Candidate(i, alphas[i]));
+        int budget = m_initialBudget;
+        int target = 0;
+
+        while (true) {
+            target = Math.min(MAX_ITERATIONS, target + budget);
+            runAll(alive, target, executor);
+
+            alive.sort(Comparator.comparingDouble((Candidate c) -> c.m_error).thenComparingInt(c -> c.m_order));
+            if (alive.size() == 1 || target == MAX_ITERATIONS) return alive.get(0);
+            // successive halving: keep the better half for twice the budget
+            alive = new ArrayList<>(alive.subList(0, (alive.size() + 1) / 2));
+            budget *= 2;
+        }
+    }
+
+    private void runAll(List<Candidate> candidates, int target, ExecutorService executor) throws Exception {
+        if (executor == null) {
+            for (Candidate candidate : candidates) candidate.run(target);
+            return;
+        }
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Candidate candidate : candidates)
+            tasks.add(() -> {
+                candidate.run(target);
+                return null;
+            });
+        for (Future<Void> future : executor.invokeAll(tasks)) future.get();
+    }
+
+    /**
+     * A learning rate with its own coefficients and gradient engine.
+     */
+    public class Candidate {
+        private final int m_order;
+        private final double m_alpha;
+        private final GradientEngine m_candidateEngine;
+        private final int[] m_slots;
+        private final double[] m_theta;
+        private final double[] m_bestTheta;
+        private final double[] m_gradient;
+        private double m_error = Double.MAX_VALUE;
+        private int m_iterations = 0;
+        private boolean m_stopped = false;
+
+        private Candidate(int order, double alpha) {
+            m_order = order;
+            m_alpha = alpha;
+            m_candidateEngine = m_engine.copy();
+            m_slots = m_engine.slots();
+            m_theta = new double[m_numCoefficients];
+            m_gradient = new double[m_numCoefficients];
+            // attributes outside the snapshot have no coefficient
+            m_theta[0] = 1;
+            for (int slot : m_slots) m_theta[slot] = 1;
+            m_bestTheta = m_theta.clone();
+        }
+
+        public double getAlpha() {
+            return m_alpha;
+        }
+
+        /**
+         * Returns the lowest MSE seen on the checks, Double.MAX_VALUE before the first one.
+         *
+         * @return
+         */
+        public double getError() {
+            return m_error;
+        }
+
+        /**
+         * Returns the coefficients with the lowest error seen on the checks.
+         *
+         * @return
+         */
+        public double[] getCoefficients() {
+            return m_bestTheta.clone();
+        }
+
+        /**
+         * Runs gradient descent until the given total number of iterations,
+         * or until the error rises.
+         *
+         * @param target
+         */
+        private void run(int target) {
+            double curr_MSE;
+            while (!m_stopped) {
+                // the gradient sweep also yields the MSE after m_iterations updates
+                curr_MSE = m_candidateEngine.gradient(m_theta, m_gradient);
+                if (m_iterations > 0 && m_iterations % CHECK_INTERVAL == 0) {
+                    if (!(curr_MSE <= m_error)) {
+                        m_stopped = true;
+                        break;
+                    }
+                    m_error = curr_MSE;
+                    System.arraycopy(m_theta, 0, m_bestTheta, 0, m_theta.length);
+                }
+                if (m_iterations == MAX_ITERATIONS) m_stopped = true;
+                if (m_stopped || m_iterations == target) break;
+
+                m_theta[0] -= m_alpha * m_gradient[0];
+                for (int slot : m_slots) m_theta[slot] -= m_alpha * m_gradient[slot];
+                m_iterations++;
+            }
+        }
+    }
+}
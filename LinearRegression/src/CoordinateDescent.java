@@ -0,0 +1,212 @@
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Fits elastic net regularized linear predictors by cyclic coordinate descent
+ * with covariance updates (Friedman, Hastie and Tibshirani). Minimizes
+ * <pre>
+ *     1/(2m) * ||y - X b||^2 + lambda * (l1Ratio * |b|_1 + (1 - l1Ratio)/2 * |b|_2^2)
+ * </pre>
+ * over standardized attributes, so l1Ratio = 1 is the lasso and l1Ratio = 0
+ * is ridge regression. The inner products of an attribute with all the
+ * others are calculated only once it first gets a non zero coefficient, and
+ * a whole path of lambda values is fitted with warm starts.
+ * Coefficients are reported in the original units of the attributes.
+ */
+public class CoordinateDescent {
+
+    private static final double TOLERANCE = 1e-7;
+    private static final int MAX_SWEEPS = 10000;
+
+    private final int m_numInstances;
+    private final int[] m_active;
+    private final int m_numCoefficients;
+    // standardized attributes, column-major
+    private final double[][] m_columns;
+    private final double[] m_means;
+    private final double[] m_scales;
+    private final double m_classMean;
+    // inner products of the standardized attributes with the centered class
+    private final double[] m_Xty;
+    // inner products of the attributes with each other, calculated on demand
+    private final double[][] m_gram;
+    private final double m_l1Ratio;
+
+    /**
+     * @param data
+     * @param active     - indices of the attributes considered by the predictor
+     * @param classIndex
+     * @param l1Ratio    - the share of the L1 penalty, between 0 and 1
+     */
+    public CoordinateDescent(Instances data, int[] active, int classIndex, double l1Ratio) {
+        if (l1Ratio < 0 || l1Ratio > 1) throw new IllegalArgumentException("l1Ratio must be between 0 and 1: " + l1Ratio);
+        m_numInstances = data.numInstances();
+        m_active = active.clone();
+        m_numCoefficients = data.numAttributes();
+        m_l1Ratio = l1Ratio;
+        int p = active.length, m = m_numInstances;
+        m_columns = new double[p][m];
+        m_means = new double[p];
+        m_scales = new double[p];
+        m_Xty = new double[p];
+        m_gram = new double[p][];
+        double[] y = new double[m];
+        double classSum = 0;
+        Instance instance;
+
+        for (int i = 0; i < m; i++) {
+            instance = data.instance(i);
+            for (int t = 0; t < p; t++) m_columns[t][i] = instance.value(active[t]);
+            y[i] = instance.value(classIndex);
+            classSum += y[i];
+        }
+        m_classMean = classSum / m;
+        for (int i = 0; i < m; i++) y[i] -= m_classMean;
+
+        for (int t = 0; t < p; t++) {
+            double[] column = m_columns[t];
+            double sum = 0, squares = 0;
+            for (int i = 0; i < m; i++) sum += column[i];
+            m_means[t] = sum / m;
+            for (int i = 0; i < m; i++) {
+                column[i] -= m_means[t];
+                squares += column[i] * column[i];
+            }
+            // constant attributes keep a zero coefficient
+            m_scales[t] = Math.sqrt(squares / m);
+            double dot = 0;
+            for (int i = 0; i < m; i++) {
+                if (m_scales[t] > 0) column[i] /= m_scales[t];
+                dot += column[i] * y[i];
+            }
+            m_Xty[t] = dot / m;
+        }
+    }
+
+    /**
+     * Returns the smallest lambda for which all the coefficients are 0.
+     * For ridge regression, where no such lambda exists, a lambda large
+     * enough to shrink the coefficients close to 0 is returned.
+     *
+     * @return
+     */
+    public double maxLambda() {
+        double max = 0;
+        for (double c : m_Xty) max = Math.max(max, Math.abs(c));
+        return max / Math.max(m_l1Ratio, 1e-3);
+    }
+
+    /**
+     * Returns numLambdas values decreasing geometrically from maxLambda()
+     * down to maxLambda() * minRatio.
+     *
+     * @param numLambdas
+     * @param minRatio
+     * @return
+     */
+    public double[] lambdaPath(int numLambdas, double minRatio) {
+        double[] lambdas = new double[numLambdas];
+        double max = maxLambda();
+        for (int l = 0; l < numLambdas; l++)
+            lambdas[l] = (numLambdas == 1) ? max : max * Math.pow(minRatio, (double) l / (numLambdas - 1));
+        return lambdas;
+    }
+
+    /**
+     * Fits the predictors for all the lambdas, each one starting from the
+     * solution of the previous one. Lambdas should be given in decreasing order.
+     *
+     * @param lambdas
+     * @return the coefficients for every lambda, in the layout of LinearRegression:
+     * index 0 is the intercept and index i+1 belongs to attribute i
+     */
+    public double[][] path(double[] lambdas) {
+        int p = m_active.length;
+        double[] beta = new double[p];
+        double[][] coefficients = new double[lambdas.length][];
+
+        for (int l = 0; l < lambdas.length; l++) {
+            fit(beta, lambdas[l]);
+            coefficients[l] = toOriginalUnits(beta);
+        }
+        return coefficients;
+    }
+
+    /**
+     * Coordinate descent at a single lambda. Sweeps over all the attributes,
+     * then only over the ones with non zero coefficients until they converge,
+     * and repeats until a full sweep changes nothing.
+     *
+     * @param beta   - standardized coefficients, the warm start and the result
+     * @param lambda
+     */
+    private void fit(double[] beta, double lambda) {
+        int p = beta.length;
+        double l1 = lambda * m_l1Ratio;
+        double l2 = lambda * (1 - m_l1Ratio);
+        boolean fullSweep = true;
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double maxChange = 0;
+            for (int j = 0; j < p; j++) {
+                if (!fullSweep && beta[j] == 0) continue;
+                if (m_scales[j] == 0) continue;
+                // partial residual correlation: X_j^T (y - X b) / m + b_j
+                double z = m_Xty[j] + beta[j];
+                for (int k = 0; k < p; k++)
+                    if (beta[k] != 0) z -= gram(k)[j] * beta[k];
+                double updated = softThreshold(z, l1) / (1 + l2);
+                if (updated != beta[j]) {
+                    maxChange = Math.max(maxChange, Math.abs(updated - beta[j]));
+                    if (updated != 0) gram(j);
+                    beta[j] = updated;
+                }
+            }
+            if (maxChange < TOLERANCE) {
+                if (fullSweep) return;
+                fullSweep = true;
+            } else {
+                fullSweep = false;
+            }
+        }
+    }
+
+    /**
+     * Returns the inner products of attribute j with all the attributes,
+     * calculating them on first use.
+     */
+    private double[] gram(int j) {
+        if (m_gram[j] == null) {
+            int p = m_active.length;
+            double[] row = new double[p];
+            double[] column = m_columns[j];
+            for (int k = 0; k < p; k++) {
+                double[] other = m_columns[k];
+                double dot = 0;
+                for (int i = 0; i < m_numInstances; i++) dot += column[i] * other[i];
+                row[k] = dot / m_numInstances;
+            }
+            m_gram[j] = row;
+        }
+        return m_gram[j];
+    }
+
+    private double[] toOriginalUnits(double[] beta) {
+        double[] coefficients = new double[m_numCoefficients];
+        double intercept = m_classMean;
+        for (int t = 0; t < beta.length; t++) {
+            if (beta[t] == 0) continue;
+            double b = beta[t] / m_scales[t];
+            coefficients[m_active[t] + 1] = b;
+            intercept -= b * m_means[t];
+        }
+        coefficients[0] = intercept;
+        return coefficients;
+    }
+
+    private static double softThreshold(double z, double gamma) {
+        if (z > gamma) return z - gamma;
+        if (z < -gamma) return z + gamma;
+        return 0;
+    }
+}
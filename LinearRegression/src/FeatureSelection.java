@@ -0,0 +1,249 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Searches for the attributes subset of a given size whose least squares fit
+ * has the lowest training MSE, without evaluating all the combinations.
+ * Every method returns the subsets of the requested size it evaluated,
+ * ranked by their MSE (best first), in the layout of MainHW1's errorList:
+ * the k attribute indices followed by the MSE.
+ */
+public class FeatureSelection {
+
+    private final SubsetRegression m_regression;
+    private final int[] m_attributes;
+
+    /**
+     * @param regression - the cross products of the training data
+     * @param classIndex
+     * @param numAttributes - including the class
+     */
+    public FeatureSelection(SubsetRegression regression, int classIndex, int numAttributes) {
+        m_regression = regression;
+        m_attributes = new int[numAttributes - 1];
+        for (int a = 0, t = 0; a < numAttributes; a++) if (a != classIndex) m_attributes[t++] = a;
+    }
+
+    /**
+     * Sequential forward selection: starting from the empty set, repeatedly
+     * adds the attribute that lowers the MSE the most.
+     *
+     * @param k - the size of the subset
+     * @return the ranked candidates of the last step
+     */
+    public double[][] forward(int k) {
+        checkSize(k);
+        List<Integer> selected = new ArrayList<>();
+        Map<String, double[]> results = new HashMap<>();
+
+        while (selected.size() < k) {
+            int best = -1;
+            double bestError = Double.MAX_VALUE;
+            for (int a : m_attributes) {
+                if (selected.contains(a)) continue;
+                int[] subset = with(selected, a);
+                double error = evaluate(subset, k, results);
+                if (error < bestError) {
+                    bestError = error;
+                    best = a;
+                }
+            }
+            selected.add(best);
+        }
+        return rank(results);
+    }
+
+    /**
+     * Sequential backward elimination: starting from all the attributes,
+     * repeatedly removes the attribute whose removal raises the MSE the least.
+     *
+     * @param k - the size of the subset
+     * @return the ranked candidates of the last step
+     */
+    public double[][] backward(int k) {
+        checkSize(k);
+        List<Integer> selected = new ArrayList<>();
+        for (int a : m_attributes) selected.add(a);
+        Map<String, double[]> results = new HashMap<>();
+
+        while (selected.size() > k) {
+            int worst = -1;
+            double bestError = Double.MAX_VALUE;
+            for (int a : selected) {
+                double error = evaluate(without(selected, a), k, results);
+                if (error < bestError) {
+                    bestError = error;
+                    worst = a;
+                }
+            }
+            selected.remove((Integer) worst);
+        }
+        if (results.isEmpty()) evaluate(toArray(selected), k, results);
+        return rank(results);
+    }
+
+    /**
+     * Sequential floating forward selection: after every addition, keeps
+     * removing attributes while this gives a better subset of the smaller
+     * size than the best one found so far.
+     *
+     * @param k - the size of the subset
+     * @return the ranked subsets of size k evaluated on the way
+     */
+    public double[][] floating(int k) {
+        checkSize(k);
+        List<Integer> selected = new ArrayList<>();
+        Map<String, double[]> results = new HashMap<>();
+        // the best error found for every subset size
+        double[] bestBySize = new double[m_attributes.length + 1];
+        Arrays.fill(bestBySize, Double.MAX_VALUE);
+        int limit = Math.min(m_attributes.length, k + 1);
+
+        while (selected.size() < limit) {
+            // forward step
+            int best = -1;
+            double bestError = Double.MAX_VALUE;
+            for (int a : m_attributes) {
+                if (selected.contains(a)) continue;
+                double error = evaluate(with(selected, a), k, results);
+                if (error < bestError) {
+                    bestError = error;
+                    best = a;
+                }
+            }
+            selected.add(best);
+            bestBySize[selected.size()] = Math.min(bestBySize[selected.size()], bestError);
+
+            // conditional backward steps
+            while (selected.size() > 2) {
+                int worst = -1;
+                bestError = Double.MAX_VALUE;
+                for (int a : selected) {
+                    if (a == best) continue;
+                    double error = evaluate(without(selected, a), k, results);
+                    if (error < bestError) {
+                        bestError = error;
+                        worst = a;
+                    }
+                }
+                if (worst == -1 || bestError >= bestBySize[selected.size() - 1]) break;
+                selected.remove((Integer) worst);
+                bestBySize[selected.size()] = bestError;
+            }
+        }
+        return rank(results);
+    }
+
+    /**
+     * Exact best subset search by branch and bound (as in leaps and bounds).
+     * Subsets are reached by removing attributes from the full set, and since
+     * removing attributes never lowers the training error of a least squares
+     * fit, a branch is cut as soon as its error exceeds the best subset of
+     * size k found so far. The bound starts from the backward elimination result.
+     *
+     * @param k - the size of the subset
+     * @return the ranked subsets of size k reached by the search, the first is optimal
+     */
+    public double[][] branchAndBound(int k) {
+        checkSize(k);
+        Map<String, double[]> results = new HashMap<>();
+        double[] bound = {backward(k)[0][k]};
+        // search attributes whose removal costs more first, so cheap removals
+        // are left to the deeper and more constrained levels
+        Integer[] order = new Integer[m_attributes.length];
+        double[] removalCost = new double[m_attributes.length];
+        List<Integer> all = new ArrayList<>();
+        for (int a : m_attributes) all.add(a);
+        for (int t = 0; t < m_attributes.length; t++) {
+            order[t] = t;
+            removalCost[t] = m_regression.mse(without(all, m_attributes[t]));
+        }
+        Arrays.sort(order, Comparator.comparingDouble((Integer t) -> -removalCost[t]));
+        int[] attributes = new int[m_attributes.length];
+        for (int t = 0; t < attributes.length; t++) attributes[t] = m_attributes[order[t]];
+
+        branch(attributes, 0, k, bound, results);
+        return rank(results);
+    }
+
+    private void branch(int[] current, int start, int k, double[] bound, Map<String, double[]> results) {
+        double error = (current.length == k) ? evaluate(sorted(current), k, results) : m_regression.mse(current);
+        // a linearly dependent set bounds nothing, and a relative slack keeps
+        // rounding errors from cutting the optimal branch
+        if (error != Double.MAX_VALUE && error > bound[0] * (1 + 1e-12)) return;
+        if (current.length == k && error == Double.MAX_VALUE) return;
+        if (current.length == k) {
+            bound[0] = Math.min(bound[0], error);
+            return;
+        }
+
+        // remove attributes in increasing position, so every subset is reached once
+        int removals = current.length - k;
+        for (int i = start; i <= current.length - removals; i++) {
+            int[] child = new int[current.length - 1];
+            System.arraycopy(current, 0, child, 0, i);
+            System.arraycopy(current, i + 1, child, i, current.length - i - 1);
+            branch(child, i, k, bound, results);
+        }
+    }
+
+    /**
+     * Calculates the MSE of the subset, and records it if it is of size k.
+     */
+    private double evaluate(int[] subset, int k, Map<String, double[]> results) {
+        double error = m_regression.mse(subset);
+        if (subset.length == k) {
+            int[] key = sorted(subset);
+            double[] row = new double[k + 1];
+            for (int i = 0; i < k; i++) row[i] = key[i];
+            row[k] = error;
+            results.put(Arrays.toString(key), row);
+        }
+        return error;
+    }
+
+    private static double[][] rank(Map<String, double[]> results) {
+        double[][] errorList = results.values().toArray(new double[0][]);
+        Arrays.sort(errorList, (a, b) -> {
+            int c = Double.compare(a[a.length - 1], b[b.length - 1]);
+            for (int i = 0; c == 0 && i < a.length - 1; i++) c = Double.compare(a[i], b[i]);
+            return c;
+        });
+        return errorList;
+    }
+
+    private void checkSize(int k) {
+        if (k < 1 || k > m_attributes.length)
+            throw new IllegalArgumentException("subset size must be between 1 and " + m_attributes.length + ": " + k);
+    }
+
+    private static int[] sorted(int[] subset) {
+        int[] copy = subset.clone();
+        Arrays.sort(copy);
+        return copy;
+    }
+
+    private static int[] with(List<Integer> selected, int attribute) {
+        int[] subset = new int[selected.size() + 1];
+        for (int i = 0; i < selected.size(); i++) subset[i] = selected.get(i);
+        subset[selected.size()] = attribute;
+        return subset;
+    }
+
+    private static int[] without(List<Integer> selected, int attribute) {
+        int[] subset = new int[selected.size() - 1];
+        int i = 0;
+        for (int a : selected) if (a != attribute) subset[i++] = a;
+        return subset;
+    }
+
+    private static int[] toArray(List<Integer> selected) {
+        int[] subset = new int[selected.size()];
+        for (int i = 0; i < subset.length; i++) subset[i] = selected.get(i);
+        return subset;
+    }
+}
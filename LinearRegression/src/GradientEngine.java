@@ -0,0 +1,323 @@
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Computes the gradient of the squared error of a linear predictor over a
+ * primitive column-major snapshot of the training data.
+ * Every residual is computed once per call, and the gradient and the error
+ * are accumulated in the same sweep over the data.
+ * The attributes can be standardized on the fly: the coefficients are then
+ * taken in units of standard deviations from the mean, which preconditions
+ * the problem without copying or changing the snapshot.
+ * When given a pool, the rows are split into a fixed number of contiguous
+ * chunks whose partial sums are reduced in chunk order, so the results only
+ * depend on the number of chunks and not on the thread scheduling.
+ */
+public class GradientEngine {
+
+    // number of rows whose residuals are kept in cache between the two passes of a block
+    private static final int BLOCK_SIZE = 256;
+
+    private final int m_numInstances;
+    private final int[] m_slots;
+    private final double[][] m_columns;
+    private final double[] m_classValues;
+    private final double[] m_residuals;
+
+    // standardization of the attributes, null when not standardized
+    private double[] m_means;
+    private double[] m_invScales;
+    private double[] m_effective;
+
+    private ForkJoinPool m_pool;
+    private double[][] m_partialGradients;
+    private double[] m_partialErrors;
+    private List<Callable<Void>> m_tasks;
+    private double[] m_theta;
+
+    /**
+     * Takes a snapshot of the given attributes of the data.
+     *
+     * @param data
+     * @param active - indices of the attributes considered by the predictor
+     * @param classIndex
+     */
+    public GradientEngine(Instances data, int[] active, int classIndex) {
+        this(data, active, classIndex, null, 1);
+    }
+
+    /**
+     * Takes a snapshot of the given attributes of the data, and computes the
+     * gradient in parallel on the given pool.
+     *
+     * @param data
+     * @param active     - indices of the attributes considered by the predictor
+     * @param classIndex
+     * @param pool       - the pool to run on, null for serial computations
+     * @param numChunks  - the number of row chunks computed concurrently
+     */
+    public GradientEngine(Instances data, int[] active, int classIndex, ForkJoinPool pool, int numChunks) {
+        m_numInstances = data.numInstances();
+        m_slots = new int[active.length];
+        m_columns = new double[active.length][m_numInstances];
+        m_classValues = new double[m_numInstances];
+        m_residuals = new double[BLOCK_SIZE];
+        Instance instance;
+
+        for (int t = 0; t < active.length; t++) m_slots[t] = active[t] + 1;
+        for (int i = 0; i < m_numInstances; i++) {
+            instance = data.instance(i);
+            for (int t = 0; t < active.length; t++) m_columns[t][i] = instance.value(active[t]);
+            m_classValues[i] = instance.value(classIndex);
+        }
+
+        // no point in chunks smaller than a block
+        numChunks = Math.min(numChunks, (m_numInstances + BLOCK_SIZE - 1) / BLOCK_SIZE);
+        if (pool != null && numChunks > 1) initChunks(pool, numChunks);
+    }
+
+    /**
+     * Creates a serial engine sharing the snapshot of another one, with its own
+     * buffers, so both can be used concurrently.
+     *
+     * @param other
+     */
+    private GradientEngine(GradientEngine other) {
+        m_numInstances = other.m_numInstances;
+        m_slots = other.m_slots;
+        m_columns = other.m_columns;
+        m_classValues = other.m_classValues;
+        m_residuals = new double[BLOCK_SIZE];
+        m_means = other.m_means;
+        m_invScales = other.m_invScales;
+        if (m_means != null) m_effective = new double[other.m_effective.length];
+    }
+
+    /**
+     * Returns a serial engine over the same snapshot that can run concurrently
+     * with this one.
+     *
+     * @return
+     */
+    public GradientEngine copy() {
+        return new GradientEngine(this);
+    }
+
+    /**
+     * Standardizes the attributes from now on: theta given to #gradient() is
+     * in standardized units, and so is the gradient it returns.
+     * Constant attributes get a zero scale, so their coefficients have no effect.
+     *
+     * @param numCoefficients - the length of theta
+     */
+    public void standardize(int numCoefficients) {
+        int n = m_slots.length;
+        m_means = new double[n];
+        m_invScales = new double[n];
+        m_effective = new double[numCoefficients];
+        double sum, squares, d;
+
+        for (int t = 0; t < n; t++) {
+            double[] column = m_columns[t];
+            sum = 0;
+            for (int i = 0; i < m_numInstances; i++) sum += column[i];
+            m_means[t] = sum / m_numInstances;
+            squares = 0;
+            for (int i = 0; i < m_numInstances; i++) {
+                d = column[i] - m_means[t];
+                squares += d * d;
+            }
+            m_invScales[t] = (squares > 0) ? 1 / Math.sqrt(squares / m_numInstances) : 0;
+        }
+    }
+
+    public boolean isStandardized() {
+        return m_means != null;
+    }
+
+    /**
+     * Converts standardized coefficients to the original units of the attributes.
+     * Without standardization the coefficients are copied as they are.
+     *
+     * @param theta - indexed like LinearRegression's m_coefficients
+     * @param out   - the converted coefficients, may be theta itself
+     * @return out
+     */
+    public double[] toOriginalUnits(double[] theta, double[] out) {
+        if (out != theta) System.arraycopy(theta, 0, out, 0, theta.length);
+        if (m_means == null) return out;
+        double intercept = theta[0];
+        for (int t = 0; t < m_slots.length; t++) {
+            out[m_slots[t]] = theta[m_slots[t]] * m_invScales[t];
+            intercept -= out[m_slots[t]] * m_means[t];
+        }
+        out[0] = intercept;
+        return out;
+    }
+
+    /**
+     * Returns the Hessian of the MSE with respect to the coefficients of the
+     * intercept and the snapshot attributes (in this order), i.e. X^T X / m,
+     * in standardized units if the engine is standardized.
+     *
+     * @return
+     */
+    public double[][] hessian() {
+        int n = m_slots.length + 1;
+        double[][] H = new double[n][n];
+        double[] x = new double[n];
+        x[0] = 1;
+        for (int i = 0; i < m_numInstances; i++) {
+            for (int t = 1; t < n; t++) {
+                x[t] = m_columns[t - 1][i];
+                if (m_means != null) x[t] = (x[t] - m_means[t - 1]) * m_invScales[t - 1];
+            }
+            for (int r = 0; r < n; r++)
+                for (int c = 0; c <= r; c++) H[r][c] += x[r] * x[c];
+        }
+        for (int r = 0; r < n; r++)
+            for (int c = 0; c <= r; c++) {
+                H[r][c] /= m_numInstances;
+                H[c][r] = H[r][c];
+            }
+        return H;
+    }
+
+    /**
+     * Returns the coefficient indices the snapshot holds attributes for
+     * (not including the intercept at index 0).
+     *
+     * @return
+     */
+    public int[] slots() {
+        return m_slots.clone();
+    }
+
+    /**
+     * Splits the rows into numChunks contiguous ranges, each with its own
+     * partial gradient and residual buffer.
+     */
+    private void initChunks(ForkJoinPool pool, int numChunks) {
+        m_pool = pool;
+        m_partialErrors = new double[numChunks];
+        m_partialGradients = new double[numChunks][];
+        m_tasks = new ArrayList<>(numChunks);
+        int numBlocks = (m_numInstances + BLOCK_SIZE - 1) / BLOCK_SIZE;
+
+        for (int c = 0; c < numChunks; c++) {
+            final int chunk = c;
+            // chunk boundaries are aligned to whole blocks
+            final int from = Math.min(m_numInstances, (int) ((long) numBlocks * c / numChunks) * BLOCK_SIZE);
+            final int to = Math.min(m_numInstances, (int) ((long) numBlocks * (c + 1) / numChunks) * BLOCK_SIZE);
+            final double[] residuals = new double[BLOCK_SIZE];
+            m_tasks.add(() -> {
+                double[] partial = m_partialGradients[chunk];
+                Arrays.fill(partial, 0);
+                m_partialErrors[chunk] = sweep(m_theta, partial, from, to, residuals);
+                return null;
+            });
+        }
+    }
+
+    public int numInstances() {
+        return m_numInstances;
+    }
+
+    /**
+     * Calculates the mean gradient of the squared error at theta.
+     * theta and gradient are indexed like m_coefficients of the predictor:
+     * index 0 is the intercept and index i+1 belongs to attribute i.
+     * Entries of attributes outside the snapshot are left untouched.
+     *
+     * @param theta    - the current coefficients
+     * @param gradient - output, the mean gradient
+     * @return the MSE of theta, as calculated by LinearRegression#calculateMSE()
+     */
+    public double gradient(double[] theta, double[] gradient) {
+        gradient[0] = 0;
+        for (int slot : m_slots) gradient[slot] = 0;
+        // the residuals only need the predictor in original units
+        double[] effective = (m_means == null) ? theta : toOriginalUnits(theta, m_effective);
+
+        double SE = (m_pool == null) ? sweep(effective, gradient, 0, m_numInstances, m_residuals)
+                : parallelSweep(effective, gradient);
+
+        // chain rule: d/d(theta_t) = (sum r * x_t - mean_t * sum r) / scale_t
+        if (m_means != null)
+            for (int t = 0; t < m_slots.length; t++)
+                gradient[m_slots[t]] = (gradient[m_slots[t]] - m_means[t] * gradient[0]) * m_invScales[t];
+
+        gradient[0] /= m_numInstances;
+        for (int slot : m_slots) gradient[slot] /= m_numInstances;
+        return SE / (2 * m_numInstances);
+    }
+
+    /**
+     * Runs the chunks on the pool and adds their partial sums to gradient in
+     * chunk order.
+     *
+     * @return the total squared error
+     */
+    private double parallelSweep(double[] theta, double[] gradient) {
+        int numChunks = m_tasks.size();
+        for (int c = 0; c < numChunks; c++)
+            if (m_partialGradients[c] == null || m_partialGradients[c].length != gradient.length)
+                m_partialGradients[c] = new double[gradient.length];
+        m_theta = theta;
+        m_pool.invokeAll(m_tasks);
+
+        double SE = 0;
+        for (int c = 0; c < numChunks; c++) {
+            SE += m_partialErrors[c];
+            gradient[0] += m_partialGradients[c][0];
+            for (int slot : m_slots) gradient[slot] += m_partialGradients[c][slot];
+        }
+        return SE;
+    }
+
+    /**
+     * Adds the gradient sums of the rows [from, to) to gradient.
+     *
+     * @return the total squared error of these rows
+     */
+    private double sweep(double[] theta, double[] gradient, int from, int to, double[] residuals) {
+        int n = m_slots.length;
+        double SE = 0;
+        double r, w, sum;
+        double[] column;
+
+        for (int start = from; start < to; start += BLOCK_SIZE) {
+            int size = Math.min(BLOCK_SIZE, to - start);
+
+            // residuals of the block
+            for (int i = 0; i < size; i++) residuals[i] = theta[0] - m_classValues[start + i];
+            for (int t = 0; t < n; t++) {
+                column = m_columns[t];
+                w = theta[m_slots[t]];
+                for (int i = 0; i < size; i++) residuals[i] += w * column[start + i];
+            }
+
+            // error and gradient of the block
+            sum = 0;
+            for (int i = 0; i < size; i++) {
+                r = residuals[i];
+                sum += r;
+                SE += r * r;
+            }
+            gradient[0] += sum;
+            for (int t = 0; t < n; t++) {
+                column = m_columns[t];
+                sum = 0;
+                for (int i = 0; i < size; i++) sum += residuals[i] * column[start + i];
+                gradient[m_slots[t]] += sum;
+            }
+        }
+        return SE;
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * Limited memory BFGS with a backtracking (Armijo) line search.
+ */
+class LBFGSOptimizer extends Optimizer {
+
+    private static final double ARMIJO = 1e-4;
+
+    private final int m_memory;
+    private double[][] m_s, m_y;
+    private double[] m_rho;
+    private int m_stored, m_next;
+    private double[] m_gradient, m_trialGradient, m_trial, m_direction, m_alphas;
+    private double m_loss;
+
+    public LBFGSOptimizer(int memory) {
+        this.m_memory = memory;
+    }
+
+    @Override
+    protected void init(int numCoefficients) {
+        m_s = new double[m_memory][numCoefficients];
+        m_y = new double[m_memory][numCoefficients];
+        m_rho = new double[m_memory];
+        m_alphas = new double[m_memory];
+        m_gradient = new double[numCoefficients];
+        m_trialGradient = new double[numCoefficients];
+        m_trial = new double[numCoefficients];
+        m_direction = new double[numCoefficients];
+        m_stored = 0;
+        m_next = 0;
+        m_loss = Double.NaN;
+    }
+
+    @Override
+    protected double iterate(GradientEngine engine, double[] theta, int[] indices) {
+        if (Double.isNaN(m_loss)) m_loss = engine.gradient(theta, m_gradient);
+        // the loss history holds the loss before the step, like the other optimizers
+        double loss = m_loss;
+
+        // two loop recursion: direction = -H * gradient
+        for (int t : indices) m_direction[t] = -m_gradient[t];
+        for (int j = 0; j < m_stored; j++) {
+            int k = Math.floorMod(m_next - 1 - j, m_memory);
+            m_alphas[k] = m_rho[k] * dot(m_s[k], m_direction, indices);
+            axpy(-m_alphas[k], m_y[k], m_direction, indices);
+        }
+        double scale;
+        if (m_stored > 0) {
+            int last = Math.floorMod(m_next - 1, m_memory);
+            scale = dot(m_s[last], m_y[last], indices) / dot(m_y[last], m_y[last], indices);
+        } else {
+            // first step: a unit step along the normalized gradient
+            scale = 1 / Math.sqrt(dot(m_gradient, m_gradient, indices));
+        }
+        for (int t : indices) m_direction[t] *= scale;
+        for (int j = m_stored - 1; j >= 0; j--) {
+            int k = Math.floorMod(m_next - 1 - j, m_memory);
+            double beta = m_rho[k] * dot(m_y[k], m_direction, indices);
+            axpy(m_alphas[k] - beta, m_s[k], m_direction, indices);
+        }
+
+        double slope = dot(m_gradient, m_direction, indices);
+        if (!(slope < 0)) {
+            // not a descent direction, restart from the gradient
+            m_stored = 0;
+            for (int t : indices) m_direction[t] = -m_gradient[t];
+            slope = dot(m_gradient, m_direction, indices);
+        }
+
+        // backtracking line search
+        double step = 1, trialLoss;
+        while (true) {
+            for (int t : indices) m_trial[t] = theta[t] + step * m_direction[t];
+            trialLoss = engine.gradient(m_trial, m_trialGradient);
+            if (trialLoss <= m_loss + ARMIJO * step * slope || step < 1e-20) break;
+            step /= 2;
+        }
+
+        // keep the curvature pair if it is positive
+        double sy = 0;
+        for (int t : indices) {
+            m_s[m_next][t] = m_trial[t] - theta[t];
+            m_y[m_next][t] = m_trialGradient[t] - m_gradient[t];
+            sy += m_s[m_next][t] * m_y[m_next][t];
+        }
+        if (sy > 1e-12) {
+            m_rho[m_next] = 1 / sy;
+            m_next = (m_next + 1) % m_memory;
+            m_stored = Math.min(m_stored + 1, m_memory);
+        }
+
+        for (int t : indices) {
+            theta[t] = m_trial[t];
+            m_gradient[t] = m_trialGradient[t];
+        }
+        m_loss = trialLoss;
+        return loss;
+    }
+
+    private static double dot(double[] a, double[] b, int[] indices) {
+        double sum = 0;
+        for (int t : indices) sum += a[t] * b[t];
+        return sum;
+    }
+
+    private static void axpy(double a, double[] x, double[] y, int[] indices) {
+        for (int t : indices) y[t] += a * x[t];
+    }
+}
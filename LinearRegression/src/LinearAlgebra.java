@@ -0,0 +1,119 @@
+/**
+ * Small dense linear algebra helpers used by the linear regression solvers.
+ * Matrices are stored row-major as double[][].
+ */
+public class LinearAlgebra {
+
+    /**
+     * Computes the Cholesky factor L (lower triangular) of a symmetric positive
+     * definite matrix A, such that A = L * L^T.
+     *
+     * @param A - a symmetric matrix, not modified
+     * @return L, or null if A is not (numerically) positive definite
+     */
+    public static double[][] cholesky(double[][] A) {
+        int n = A.length;
+        double[][] L = new double[n][n];
+        double sum;
+
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j <= i; j++) {
+                sum = A[i][j];
+                for (int k = 0; k < j; k++) sum -= L[i][k] * L[j][k];
+                if (i == j) {
+                    // a non positive pivot means a singular (or nearly singular) system
+                    if (sum <= 1e-12 * Math.abs(A[i][i])) return null;
+                    L[i][i] = Math.sqrt(sum);
+                } else {
+                    L[i][j] = sum / L[j][j];
+                }
+            }
+        }
+        return L;
+    }
+
+    /**
+     * Solves L * L^T * x = b given the Cholesky factor L.
+     *
+     * @param L - lower triangular factor as returned by #cholesky()
+     * @param b - the right hand side, not modified
+     * @return x
+     */
+    public static double[] choleskySolve(double[][] L, double[] b) {
+        int n = L.length;
+        double[] x = new double[n];
+        double sum;
+
+        // forward substitution: L * z = b
+        for (int i = 0; i < n; i++) {
+            sum = b[i];
+            for (int k = 0; k < i; k++) sum -= L[i][k] * x[k];
+            x[i] = sum / L[i][i];
+        }
+        // back substitution: L^T * x = z
+        for (int i = n - 1; i >= 0; i--) {
+            sum = x[i];
+            for (int k = i + 1; k < n; k++) sum -= L[k][i] * x[k];
+            x[i] = sum / L[i][i];
+        }
+        return x;
+    }
+
+    /**
+     * Solves the symmetric positive definite system A * x = b.
+     *
+     * @param A
+     * @param b
+     * @return x, or null if A is not positive definite
+     */
+    public static double[] solve(double[][] A, double[] b) {
+        double[][] L = cholesky(A);
+        if (L == null) return null;
+        return choleskySolve(L, b);
+    }
+
+    /**
+     * Calculates the eigenvalues of a symmetric matrix by the cyclic Jacobi method.
+     *
+     * @param A - a symmetric matrix, not modified
+     * @return the eigenvalues, in no particular order
+     */
+    public static double[] symmetricEigenvalues(double[][] A) {
+        int n = A.length;
+        double[][] a = new double[n][];
+        for (int i = 0; i < n; i++) a[i] = A[i].clone();
+
+        for (int sweep = 0; sweep < 100; sweep++) {
+            double off = 0;
+            for (int p = 0; p < n; p++)
+                for (int q = p + 1; q < n; q++) off += a[p][q] * a[p][q];
+            if (off == 0) break;
+
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (a[p][q] == 0) continue;
+                    // the rotation that zeroes a[p][q]
+                    double theta = (a[q][q] - a[p][p]) / (2 * a[p][q]);
+                    double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+                    if (theta == 0) t = 1;
+                    double c = 1 / Math.sqrt(t * t + 1);
+                    double s = t * c;
+                    for (int k = 0; k < n; k++) {
+                        double akp = a[k][p], akq = a[k][q];
+                        a[k][p] = c * akp - s * akq;
+                        a[k][q] = s * akp + c * akq;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        double apk = a[p][k], aqk = a[q][k];
+                        a[p][k] = c * apk - s * aqk;
+                        a[q][k] = s * apk + c * aqk;
+                    }
+                }
+            }
+        }
+
+        double[] eigenvalues = new double[n];
+        for (int i = 0; i < n; i++) eigenvalues[i] = a[i][i];
+        return eigenvalues;
+    }
+}
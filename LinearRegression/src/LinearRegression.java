@@ -3,12 +3,49 @@ import weka.core.Capabilities;
 import weka.core.Instance;
 import weka.core.Instances;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
 public class LinearRegression implements Classifier {
+
+    public enum SolverType {GradientDescent, NormalEquations, Auto, CoordinateDescent}
+
+    public enum OptimizerType {GradientDescent, Momentum, Nesterov, Adam, LBFGS}
+
+    // above this number of active features Auto prefers gradient descent,
+    // since the exact solve grows as O(features^3)
+    private static final int AUTO_MAX_FEATURES = 1000;
 	
     private int m_ClassIndex;
 	private int m_truNumAttributes;
 	private double[] m_coefficients;
 	private double m_alpha;
+	private SolverType m_solver = SolverType.GradientDescent;
+	private GradientEngine m_engine;
+	private double[] m_gradient;
+	private boolean[] m_isActive;
+	private int m_numThreads = 1;
+	// the pool given by the caller, used whenever set
+	private ForkJoinPool m_pool;
+	// the pool of m_numThreads threads created when no pool was given
+	private ForkJoinPool m_ownPool;
+	private boolean m_successiveHalving = false;
+	private boolean m_warmStart = false;
+	private OptimizerType m_optimizerType = OptimizerType.GradientDescent;
+	private double m_tolerance = 1e-10;
+	private int m_maxIterations = 100000;
+	private long m_timeBudgetMillis = 0;
+	private double m_momentum = 0.9;
+	private double m_learningRate = 0.01;
+	private double[] m_lossHistory = new double[0];
+	private double m_lambda = 0;
+	private double m_l1Ratio = 1;
+	// the compiled predictor: the attributes with a coefficient and their weights
+	private int[] m_predictIndices = new int[0];
+	private double[] m_predictWeights = new double[0];
+	private boolean m_standardize = false;
+	private double m_conditionNumber = Double.NaN;
 	
 	//the method which runs to train the linear regression predictor, i.e.
 	//finds its weights.
@@ -17,8 +54,8 @@ public class LinearRegression implements Classifier {
 		m_ClassIndex = trainingData.classIndex();
 		m_truNumAttributes = trainingData.numAttributes()-1;
 		m_coefficients = new double[m_truNumAttributes + 1];
-        findAlpha(trainingData);
-		m_coefficients = gradientDescent(trainingData);
+		fit(trainingData);
+		compileModel(trainingData);
 	}
 
 
@@ -27,43 +64,398 @@ public class LinearRegression implements Classifier {
 		m_truNumAttributes = trainingData.numAttributes()-1;
 		m_coefficients = new double[m_truNumAttributes + 1];
 		m_alpha = alpha;
-		m_coefficients = gradientDescent(trainingData);
+		initEngine(trainingData);
+		m_coefficients = m_engine.toOriginalUnits(gradientDescent(trainingData), m_coefficients);
+		releaseEngine();
+		compileModel(trainingData);
 	}
 
+    /**
+     * Finds the weights with the selected solver.
+     *
+     * @param trainingData
+     * @throws Exception
+     */
+    private void fit(Instances trainingData) throws Exception {
+        m_engine = null;
+        m_conditionNumber = Double.NaN;
+        if (useNormalEquations(trainingData) && normalEquations(trainingData)) return;
+        if (m_solver == SolverType.CoordinateDescent) {
+            coordinateDescent(trainingData);
+            return;
+        }
+        initEngine(trainingData);
+        // Adam and L-BFGS choose their own step sizes
+        if (m_optimizerType != OptimizerType.Adam && m_optimizerType != OptimizerType.LBFGS)
+            findAlpha(trainingData);
+        m_coefficients = m_engine.toOriginalUnits(gradientDescent(trainingData), m_coefficients);
+        releaseEngine();
+    }
+
+    /**
+     * Calculates the condition number while the snapshot of the training data
+     * is still at hand, then drops the snapshot so the trained model does not
+     * keep a copy of the data alive.
+     */
+    private void releaseEngine() {
+        double[] eigenvalues = LinearAlgebra.symmetricEigenvalues(m_engine.hessian());
+        double min = Double.MAX_VALUE, max = 0;
+        for (double e : eigenvalues) {
+            min = Math.min(min, Math.abs(e));
+            max = Math.max(max, Math.abs(e));
+        }
+        m_conditionNumber = (min == 0) ? Double.POSITIVE_INFINITY : max / min;
+        m_engine = null;
+    }
+
+    /**
+     * Precompiles the predictor: the indices of the attributes it considers
+     * (skipping the class and the attributes with weight 0) and their
+     * coefficients in a dense array, so predictions need no attribute lookups.
+     *
+     * @param header - the training data or its structure
+     */
+    private void compileModel(Instances header) {
+        int[] active = activeAttributes(header);
+        m_predictIndices = active;
+        m_predictWeights = new double[active.length];
+        for (int t = 0; t < active.length; t++) m_predictWeights[t] = m_coefficients[active[t] + 1];
+    }
+    /**
+     * Sets the weights of a predictor trained elsewhere (e.g. by StreamingSGDTrainer).
+     *
+     * @param header       - the structure of the data
+     * @param coefficients - index 0 is the intercept and index i+1 belongs to attribute i
+     */
+    void setModel(Instances header, double[] coefficients) {
+        m_ClassIndex = header.classIndex();
+        m_truNumAttributes = header.numAttributes()-1;
+        m_coefficients = coefficients;
+        compileModel(header);
+    }
+
     public double getAlpha() {
 	    return this.m_alpha;
     }
 
-	private void resetTheta() {
-	    int m = m_coefficients.length;
-	    for (int i = 0; i < m; i++) m_coefficients[i] = 1;
+    public void setSolver(SolverType solver) {
+        this.m_solver = solver;
+    }
+
+    public SolverType getSolver() {
+        return this.m_solver;
+    }
+
+    /**
+     * Sets the number of threads used to compute the gradient. The training rows
+     * are split into this many chunks, so results are reproducible for a
+     * given number of threads.
+     *
+     * @param numThreads - 1 for a serial computation
+     */
+    public void setNumThreads(int numThreads) {
+        if (numThreads < 1) throw new IllegalArgumentException("numThreads must be positive: " + numThreads);
+        if (numThreads != m_numThreads && m_ownPool != null) {
+            m_ownPool.shutdown();
+            m_ownPool = null;
+        }
+        this.m_numThreads = numThreads;
+    }
+
+    /**
+     * Selects how findAlpha searches for the learning rate: false tries every
+     * candidate one after another for up to 20000 iterations, true runs them
+     * concurrently with successive halving, and the final gradient descent
+     * continues from the coefficients of the winner.
+     *
+     * @param successiveHalving
+     */
+    public void setSuccessiveHalving(boolean successiveHalving) {
+        this.m_successiveHalving = successiveHalving;
     }
 
-    private void updateTheta(double alpha, Instances data) throws Exception {
-        int n = m_coefficients.length;
+    /**
+     * Standardizes the attributes on the fly during gradient based training,
+     * so they share the same scale and gradient descent can use much larger
+     * steps. The training data is not copied or changed, and the coefficients
+     * are still reported in the original units.
+     *
+     * @param standardize
+     */
+    public void setStandardize(boolean standardize) {
+        this.m_standardize = standardize;
+    }
+
+    /**
+     * Returns the condition number of the Hessian X^T X / m seen by the
+     * last gradient based training (after standardization, if enabled).
+     * Gradient descent needs a number of iterations that grows with it.
+     *
+     * @return the condition number, NaN if the last training was not gradient based
+     */
+    public double getConditionNumber() {
+        return m_conditionNumber;
+    }
+
+    /**
+     * Sets the strength of the elastic net penalty of the CoordinateDescent solver.
+     *
+     * @param lambda
+     */
+    public void setLambda(double lambda) {
+        this.m_lambda = lambda;
+    }
+
+    /**
+     * Sets the share of the L1 penalty of the CoordinateDescent solver:
+     * 1 for the lasso, 0 for ridge regression.
+     *
+     * @param l1Ratio
+     */
+    public void setL1Ratio(double l1Ratio) {
+        this.m_l1Ratio = l1Ratio;
+    }
+
+    /**
+     * Fits the elastic net regularized predictors for all the given lambdas
+     * by coordinate descent, each one warm started from the previous one.
+     * The predictor keeps the coefficients of the last lambda.
+     *
+     * @param trainingData
+     * @param lambdas - in decreasing order, or null for 100 values from the smallest
+     *                lambda that zeros all the coefficients down to 1/1000 of it
+     * @return the coefficients for every lambda, indexed like m_coefficients
+     */
+    public double[][] regularizationPath(Instances trainingData, double[] lambdas) {
+        m_ClassIndex = trainingData.classIndex();
+        m_truNumAttributes = trainingData.numAttributes()-1;
+        CoordinateDescent cd = new CoordinateDescent(trainingData, activeAttributes(trainingData),
+                m_ClassIndex, m_l1Ratio);
+        if (lambdas == null) lambdas = cd.lambdaPath(100, 1e-3);
+
+        double[][] path = cd.path(lambdas);
+        m_coefficients = path[path.length - 1].clone();
+        compileModel(trainingData);
+        return path;
+    }
+
+    /**
+     * Fits the predictor for m_lambda by coordinate descent, following a short
+     * path of warm starts down from the largest useful lambda.
+     *
+     * @param data
+     */
+    private void coordinateDescent(Instances data) {
+        CoordinateDescent cd = new CoordinateDescent(data, activeAttributes(data), m_ClassIndex, m_l1Ratio);
+        double max = cd.maxLambda();
+        double[] lambdas;
+        if (m_lambda >= max || m_lambda <= 0) {
+            lambdas = new double[]{Math.max(m_lambda, 0)};
+        } else {
+            lambdas = cd.lambdaPath(20, m_lambda / max);
+            lambdas[lambdas.length - 1] = m_lambda;
+        }
+        double[][] path = cd.path(lambdas);
+        m_coefficients = path[path.length - 1];
+    }
+
+    /**
+     * Selects the optimizer that fits the coefficients. GradientDescent keeps
+     * the fixed step updates with the absolute 0.003 stopping rule, the
+     * others stop on the relative tolerance and the iteration and time budgets.
+     *
+     * @param optimizerType
+     */
+    public void setOptimizer(OptimizerType optimizerType) {
+        this.m_optimizerType = optimizerType;
+    }
+
+    /**
+     * Sets the relative change of the MSE between two iterations under which
+     * the optimizers (other than GradientDescent) stop.
+     *
+     * @param tolerance
+     */
+    public void setTolerance(double tolerance) {
+        this.m_tolerance = tolerance;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        this.m_maxIterations = maxIterations;
+    }
+
+    /**
+     * @param timeBudgetMillis - 0 for no time limit
+     */
+    public void setTimeBudget(long timeBudgetMillis) {
+        this.m_timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * Sets the momentum of the Momentum and Nesterov optimizers.
+     *
+     * @param momentum
+     */
+    public void setMomentum(double momentum) {
+        this.m_momentum = momentum;
+    }
+
+    /**
+     * Sets the learning rate of the Adam optimizer.
+     *
+     * @param learningRate
+     */
+    public void setLearningRate(double learningRate) {
+        this.m_learningRate = learningRate;
+    }
+
+    /**
+     * Returns the MSE at every iteration of the last fit.
+     *
+     * @return
+     */
+    public double[] getLossHistory() {
+        return m_lossHistory.clone();
+    }
+
+    /**
+     * Runs the parallel gradient computations on the given pool instead of
+     * a pool owned by this classifier. The pool is used whatever the number
+     * of threads, until it is replaced; with 1 thread the rows are split into
+     * as many chunks as the pool's parallelism.
+     *
+     * @param pool - null to go back to the number of threads
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.m_pool = pool;
+    }
+
+    /**
+     * Takes the snapshot of the training data used by the gradient computations.
+     *
+     * @param data
+     */
+    private void initEngine(Instances data) {
+        int[] active = activeAttributes(data);
+        ForkJoinPool pool = pool();
+        m_engine = (pool != null) ? new GradientEngine(data, active, m_ClassIndex, pool, numChunks())
+                : new GradientEngine(data, active, m_ClassIndex);
+        if (m_standardize) m_engine.standardize(m_coefficients.length);
+        m_conditionNumber = Double.NaN;
+        m_gradient = new double[m_coefficients.length];
+        m_isActive = new boolean[m_coefficients.length];
+        for (int i : active) m_isActive[i + 1] = true;
+    }
+
+    /**
+     * Decides whether the exact least squares solver should be used
+     * according to the selected solver type.
+     *
+     * @param data
+     * @return true for the normal equations, false for gradient descent
+     */
+    private boolean useNormalEquations(Instances data) {
+        switch (m_solver) {
+            case NormalEquations:
+                return true;
+            case Auto:
+                return activeAttributes(data).length <= AUTO_MAX_FEATURES;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the indices of the attributes considered by the predictor,
+     * i.e. all attributes but the class with a non zero weight.
+     *
+     * @param data
+     * @return
+     */
+    private int[] activeAttributes(Instances data) {
+        int count = 0;
+        int[] active = new int[m_truNumAttributes];
+        for (int i = 0; i < m_truNumAttributes; i++)
+            if (i != m_ClassIndex && data.attribute(i).weight() != 0) active[count++] = i;
+
+        int[] result = new int[count];
+        System.arraycopy(active, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Finds the exact least squares weights by solving the normal equations
+     * (X^T X) theta = X^T y with a Cholesky decomposition, and stores them
+     * in m_coefficients. Attributes with weight 0 get a coefficient of 0.
+     *
+     * @param data
+     * @return false if X^T X is singular and no solution was stored
+     */
+    private boolean normalEquations(Instances data) {
+        int[] active = activeAttributes(data);
+        int n = active.length + 1;
         int m = data.numInstances();
-        double x_t, derivative_t;
+        double[][] XtX = new double[n][n];
+        double[] Xty = new double[n];
+        double[] x = new double[n];
+        double y;
         Instance instance;
-	    double[] temp_coefficients = new double[n];
-
-        for (int t = 0; t < n; t++) {
-            // skip attributes with weight 0
-            if (t > 0 && data.attribute(t-1).weight() == 0) continue;
-            derivative_t = 0;
-            for (int i = 0; i < m; i++) {
-                instance = data.instance(i);
-                x_t = (t == 0) ? 1 : instance.value(t-1);
-                derivative_t += (regressionPrediction(instance) - instance.value(m_ClassIndex)) * x_t;
+
+        x[0] = 1;
+        for (int i = 0; i < m; i++) {
+            instance = data.instance(i);
+            for (int t = 1; t < n; t++) x[t] = instance.value(active[t-1]);
+            y = instance.value(m_ClassIndex);
+            for (int r = 0; r < n; r++) {
+                Xty[r] += x[r] * y;
+                for (int c = 0; c <= r; c++) XtX[r][c] += x[r] * x[c];
             }
-            temp_coefficients[t] = m_coefficients[t] - alpha * derivative_t / m;
         }
+        for (int r = 0; r < n; r++)
+            for (int c = r + 1; c < n; c++) XtX[r][c] = XtX[c][r];
+
+        double[] theta = LinearAlgebra.solve(XtX, Xty);
+        if (theta == null) return false;
+
+        m_coefficients[0] = theta[0];
+        for (int t = 1; t < n; t++) m_coefficients[active[t-1] + 1] = theta[t];
+        return true;
+    }
+
+	private void resetTheta() {
+	    int m = m_coefficients.length;
+	    for (int i = 0; i < m; i++) m_coefficients[i] = 1;
+    }
+
+    /**
+     * Calculates the gradient of the error at the current coefficients
+     * into m_gradient.
+     *
+     * @return the MSE of the current coefficients
+     */
+    private double computeGradient() {
+        return m_engine.gradient(m_coefficients, m_gradient);
+    }
 
-        for (int t = 0; t < n; t++) {
-            m_coefficients[t] = temp_coefficients[t];
+    /**
+     * Takes a single gradient step using the gradient calculated by #computeGradient().
+     *
+     * @param alpha - the learning rate
+     */
+    private void updateTheta(double alpha) {
+        m_coefficients[0] -= alpha * m_gradient[0];
+        for (int t = 1; t < m_coefficients.length; t++) {
+            // attributes with weight 0 have no coefficient
+            if (!m_isActive[t]) m_coefficients[t] = 0;
+            else m_coefficients[t] -= alpha * m_gradient[t];
         }
     }
 	
 	private void findAlpha(Instances data) throws Exception {
+		if (m_successiveHalving) {
+		    findAlphaBySuccessiveHalving();
+		    return;
+        }
 		double alpha, pre_MSE, curr_MSE;
         double best_MSE = Double.MAX_VALUE;
 
@@ -71,13 +463,14 @@ public class LinearRegression implements Classifier {
 		    alpha = Math.pow(3, i);
 		    this.resetTheta();
             pre_MSE = Double.MAX_VALUE;
-		    for (int j = 1; j <= 20000; j++) {
-                this.updateTheta(alpha, data);
-		        if (j % 100 == 0) {
-                    curr_MSE = calculateMSE(data);
+		    for (int j = 0; j <= 20000; j++) {
+		        // the gradient sweep also yields the MSE after j updates
+		        curr_MSE = this.computeGradient();
+		        if (j > 0 && j % 100 == 0) {
                     if (curr_MSE > pre_MSE) break;
                     pre_MSE = curr_MSE;
                 }
+		        if (j < 20000) this.updateTheta(alpha);
             }
 
             if (pre_MSE < best_MSE) {
@@ -87,6 +480,25 @@ public class LinearRegression implements Classifier {
         }
     }
 	
+    /**
+     * Evaluates all the alpha candidates concurrently, dropping the worse half
+     * of them every round, and keeps the coefficients of the winner for
+     * the following gradient descent.
+     *
+     * @throws Exception
+     */
+    private void findAlphaBySuccessiveHalving() throws Exception {
+        double[] alphas = new double[18];
+        for (int i = 0; i < alphas.length; i++) alphas[i] = Math.pow(3, -i);
+
+        AlphaSearch search = new AlphaSearch(m_engine, m_coefficients.length);
+        ForkJoinPool pool = pool();
+        AlphaSearch.Candidate winner = search.search(alphas, (pool != null) ? pool : ForkJoinPool.commonPool());
+        m_alpha = winner.getAlpha();
+        m_coefficients = winner.getCoefficients();
+        m_warmStart = true;
+    }
+
 	/**
 	 * An implementation of the gradient descent algorithm which should
 	 * return the weights of a linear regression predictor which minimizes
@@ -96,21 +508,68 @@ public class LinearRegression implements Classifier {
 	 * @throws Exception
 	 */
 	private double[] gradientDescent(Instances trainingData) throws Exception {
+	    if (m_optimizerType != OptimizerType.GradientDescent) return optimize();
 	    double pre_MSE = Double.MAX_VALUE;
 	    double curr_MSE, dif_ERR;
         double epsilon = 0.003;
-        this.resetTheta();
+        // continue from the coefficients found by the alpha search, if any
+        if (!m_warmStart) this.resetTheta();
+        m_warmStart = false;
 
-	    do {
-            for (int i = 0; i < 100; i++)
-                this.updateTheta(m_alpha, trainingData);
-            curr_MSE = calculateMSE(trainingData);
-            dif_ERR = pre_MSE - curr_MSE;
-            pre_MSE = curr_MSE;
-        } while (Math.abs(dif_ERR) > epsilon);
+	    double[] history = new double[1024];
+	    for (int j = 0; ; j++) {
+	        // the gradient sweep also yields the MSE after j updates
+	        curr_MSE = this.computeGradient();
+	        if (j == history.length) history = Arrays.copyOf(history, 2 * j);
+	        history[j] = curr_MSE;
+	        if (j > 0 && j % 100 == 0) {
+                dif_ERR = pre_MSE - curr_MSE;
+                pre_MSE = curr_MSE;
+                if (Math.abs(dif_ERR) <= epsilon) {
+                    m_lossHistory = Arrays.copyOf(history, j + 1);
+                    break;
+                }
+            }
+	        this.updateTheta(m_alpha);
+        }
 
 	    return m_coefficients;
     }
+
+    /**
+     * Fits the coefficients with the selected optimizer, starting from the
+     * coefficients of the alpha search when warm starting.
+     *
+     * @return the coefficients
+     */
+    private double[] optimize() {
+        Optimizer optimizer;
+        switch (m_optimizerType) {
+            case Momentum:
+                optimizer = new MomentumOptimizer(m_alpha, m_momentum, false);
+                break;
+            case Nesterov:
+                optimizer = new MomentumOptimizer(m_alpha, m_momentum, true);
+                break;
+            case Adam:
+                optimizer = new AdamOptimizer(m_learningRate);
+                break;
+            default:
+                optimizer = new LBFGSOptimizer(10);
+                break;
+        }
+        optimizer.setTolerance(m_tolerance);
+        optimizer.setMaxIterations(m_maxIterations);
+        optimizer.setTimeBudget(m_timeBudgetMillis);
+
+        if (!m_warmStart) this.resetTheta();
+        m_warmStart = false;
+        for (int t = 1; t < m_coefficients.length; t++)
+            if (!m_isActive[t]) m_coefficients[t] = 0;
+        optimizer.optimize(m_engine, m_coefficients);
+        m_lossHistory = optimizer.getLossHistory();
+        return m_coefficients;
+    }
 	
 	/**
 	 * Returns the prediction of a linear regression predictor with weights
@@ -122,13 +581,94 @@ public class LinearRegression implements Classifier {
 	 */
 	public double regressionPrediction(Instance instance) throws Exception {
 	    double predictedY = m_coefficients[0];
-	    for (int i = 0; i < m_truNumAttributes && i != m_ClassIndex; i++)
-	        // skip attributes with weight 0
-	        if (instance.attribute(i).weight() != 0)
-	            predictedY += m_coefficients[i+1]*instance.value(i);
+	    // only the attributes compiled at build time, i.e. not the class
+	    // and not attributes with weight 0
+	    for (int t = 0; t < m_predictIndices.length; t++)
+	        predictedY += m_predictWeights[t]*instance.value(m_predictIndices[t]);
 
 	    return predictedY;
 	}
+
+    /**
+     * Returns the predictions on all the given instances.
+     * Runs in parallel when the classifier has more than one thread, or a pool.
+     *
+     * @param data
+     * @return
+     * @throws Exception
+     */
+    public double[] predict(Instances data) throws Exception {
+        double[] predictions = new double[data.numInstances()];
+        forEachRange(predictions.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                Instance instance = data.instance(i);
+                double predictedY = m_coefficients[0];
+                for (int t = 0; t < m_predictIndices.length; t++)
+                    predictedY += m_predictWeights[t] * instance.value(m_predictIndices[t]);
+                predictions[i] = predictedY;
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Returns the predictions on a block of rows, each holding the values of
+     * all the attributes in the order of the training data.
+     *
+     * @param rows
+     * @return
+     * @throws Exception
+     */
+    public double[] predict(double[][] rows) throws Exception {
+        double[] predictions = new double[rows.length];
+        forEachRange(predictions.length, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                double[] row = rows[i];
+                double predictedY = m_coefficients[0];
+                for (int t = 0; t < m_predictIndices.length; t++)
+                    predictedY += m_predictWeights[t] * row[m_predictIndices[t]];
+                predictions[i] = predictedY;
+            }
+        });
+        return predictions;
+    }
+
+    /**
+     * Returns the pool of the parallel computations, null for a serial one.
+     * A pool is created only when no pool was given and there is more than
+     * one thread.
+     */
+    private ForkJoinPool pool() {
+        if (m_pool != null) return m_pool;
+        if (m_numThreads > 1 && m_ownPool == null) m_ownPool = new ForkJoinPool(m_numThreads);
+        return m_ownPool;
+    }
+
+    /**
+     * Returns the number of chunks the rows are split into by a parallel computation.
+     */
+    private int numChunks() {
+        return (m_pool != null && m_numThreads == 1) ? m_pool.getParallelism() : m_numThreads;
+    }
+
+    private interface RangeTask {
+        void run(int from, int to);
+    }
+
+    /**
+     * Runs the task on [0, n), split into ranges over the pool when there is
+     * more than one chunk.
+     */
+    private void forEachRange(int n, RangeTask task) throws Exception {
+        int numChunks = Math.min(numChunks(), (n + 1023) / 1024);
+        if (numChunks <= 1) {
+            task.run(0, n);
+            return;
+        }
+        pool().submit(() -> IntStream.range(0, numChunks).parallel()
+                .forEach(c -> task.run((int) ((long) n * c / numChunks), (int) ((long) n * (c + 1) / numChunks))))
+                .get();
+    }
 	
 	/**
 	 * Calculates the total squared error over the data on a linear regression
@@ -140,11 +680,12 @@ public class LinearRegression implements Classifier {
 	 */
 	public double calculateMSE(Instances data) throws Exception {
 	    int m = data.numInstances();
+	    double[] predictions = predict(data);
 	    double iE;
 	    double SE = 0;
 
 	    for (int i = 0; i < m; i++) {
-	        iE = regressionPrediction(data.instance(i)) - data.instance(i).value(m_ClassIndex);
+	        iE = predictions[i] - data.instance(i).value(m_ClassIndex);
 	        SE += iE*iE;
         }
 
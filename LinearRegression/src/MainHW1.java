@@ -7,6 +7,11 @@ import java.util.concurrent.ThreadLocalRandom;
 import weka.core.*;
 
 public class MainHW1 {
+
+    // size of the attributes sets compared by calculateBySets
+    private static final int SUBSET_SIZE = 3;
+    // above this number of sets calculateBySets searches by branch and bound
+    private static final long EXHAUSTIVE_LIMIT = 100000;
 	
 	public static BufferedReader readDataFile(String filename) {
 		BufferedReader inputReader = null;
@@ -50,84 +55,71 @@ public class MainHW1 {
                 "The chosen alpha is: " + chosenAlpha +
                 "\nTraining error with all features is: " + trainingError +
                 "\nTest error with all features is: " + testError +
-                "\n\nSeparating to sets of 3..."
+                "\n\nSeparating to sets of " + SUBSET_SIZE + "..."
         );
 
-		// Build classifiers with all 3 attributes combinations:
-        // errorList will hold all the combinations of sets of size 3
-        // and the relevant MSE
-        double[][] errorList = calculateBySets(trainingData, chosenAlpha);
+		// Build classifiers with all attributes combinations of size SUBSET_SIZE:
+        // errorList will hold all the combinations and the relevant MSE
+        double[][] errorList = calculateBySets(trainingData, SUBSET_SIZE);
         int minIndex = minIndex(errorList);
+        int[] bestSet = new int[SUBSET_SIZE];
+        for (int j = 0; j < SUBSET_SIZE; j++) bestSet[j] = (int) errorList[minIndex][j];
 
-        // calculate the test error for the best 3 attributes
-        setWeights(testingData, (int) errorList[minIndex][0], (int) errorList[minIndex][1],
-                (int) errorList[minIndex][2]);
-        setWeights(trainingData, (int) errorList[minIndex][0], (int) errorList[minIndex][1],
-                (int) errorList[minIndex][2]);
-        lr.buildClassifier(trainingData, chosenAlpha);
-        double testErrorBest3 = lr.calculateMSE(testingData);
+        // calculate the test error for the best attributes, with the same exact
+        // least squares fit the sets were compared by
+        setWeights(testingData, bestSet);
+        setWeights(trainingData, bestSet);
+        lr.setSolver(LinearRegression.SolverType.NormalEquations);
+        lr.buildClassifier(trainingData);
+        double testErrorBest = lr.calculateMSE(testingData);
 
         // Print the results to the screen
         StringBuilder s = new StringBuilder("\n\tATTRIBUTES\t\t\t\tMSE\n");
         for (int i = 0; i < errorList.length; i++) {
-            for (int j = 0; j < 3; j++)
+            for (int j = 0; j < SUBSET_SIZE; j++)
                 s.append(trainingData.attribute((int) errorList[i][j]).name() + " ");
-            s.append("=> " + errorList[i][3] + "\n");
+            s.append("=> " + errorList[i][SUBSET_SIZE] + "\n");
         }
         s.append("\n+++++++++++++++++++++++++++++++++++++++++++++++++++++");
-        s.append("\nBest 3 attributes are: ");
-        for (int j = 0; j < 3; j++)
-            s.append(trainingData.attribute((int) errorList[minIndex][j]).name() + " ");
-        s.append("\nTraining error with these features is: " + errorList[minIndex][3] +
-                 "\nTest error with these features is: " + testErrorBest3 +
+        s.append("\nBest " + SUBSET_SIZE + " attributes are: ");
+        for (int j = 0; j < SUBSET_SIZE; j++)
+            s.append(trainingData.attribute(bestSet[j]).name() + " ");
+        s.append("\nTraining error with these features is: " + errorList[minIndex][SUBSET_SIZE] +
+                 "\nTest error with these features is: " + testErrorBest +
                  "\n+++++++++++++++++++++++++++++++++++++++++++++++++++++");
         System.out.print(s.toString());
 	}
 
     /**
-     * build linear classifiers considering all combinations of
-     * attributes sets of size 3.
+     * Fits linear predictors on all combinations of attributes sets of size k.
+     * The exact least squares fit of every set is solved from the cross
+     * products of all the attributes, which are calculated only once.
+     * When there are too many combinations, only the sets reached by a
+     * branch and bound search are returned, which still include the best one.
      * @param data
-     * @param alpha
+     * @param k - the size of the sets
      * @return - an array of attributes and corresponding MSE
-     * @throws Exception
      */
-	private static double[][] calculateBySets(Instances data, double alpha) throws Exception {
-        int attributes = data.numAttributes() - 1;
-        double[][] errorList = new double[364][4]; // (14 choose 3) = 364
-        int c = 0; // counter
-        LinearRegression lr = new LinearRegression();
-
-        for (int i = 0; i < attributes; i++) {
-            for (int j = i+1; j < attributes; j++) {
-                for (int k = j+1; k < attributes; k++) {
-                    setWeights(data, i, j, k); // adjust the weights of the attributes
-                    lr.buildClassifier(data, alpha); // considering only the 3 attributes (i,j,k)
-                    // saving the 3 attributes and the MSE to the array
-                    errorList[c][0] = i;    errorList[c][1] = j;    errorList[c][2] = k;
-                    errorList[c++][3] = lr.calculateMSE(data);
-                }
-            }
-        }
-
-        return errorList;
+	private static double[][] calculateBySets(Instances data, int k) {
+        SubsetRegression regression = new SubsetRegression(data);
+        if (SubsetRegression.binomial(data.numAttributes() - 1, k) <= EXHAUSTIVE_LIMIT)
+            return regression.evaluateAll(k);
+        return new FeatureSelection(regression, data.classIndex(), data.numAttributes()).branchAndBound(k);
     }
 
     /**
-     * Setting the weights of all attributes other than i, j, k to 0
-     * and i, j, k to 1. Thus ensuring only the 3 relevant attributes will
+     * Setting the weights of all attributes other than the given ones to 0
+     * and of the given ones to 1. Thus ensuring only the relevant attributes will
      * be considered in later calculations.
      * @param data
-     * @param i
-     * @param j
-     * @param k
+     * @param attributes
      */
-    private static void setWeights(Instances data, int i, int j, int k) {
-        for (int att = 0; att < data.numAttributes() && att != data.classIndex(); att++) {
-            if (att != i && att != j && att != k)
-                data.attribute(att).setWeight(0);
-            else data.attribute(att).setWeight(1);
+    private static void setWeights(Instances data, int... attributes) {
+        for (int att = 0; att < data.numAttributes(); att++) {
+            if (att == data.classIndex()) continue;
+            data.attribute(att).setWeight(0);
         }
+        for (int att : attributes) data.attribute(att).setWeight(1);
     }
 
     /**
@@ -137,10 +129,11 @@ public class MainHW1 {
      */
     private static int minIndex(double[][] list) {
 	    int index = 0;
-	    double val = list[0][3];
+	    int last = list[0].length - 1;
+	    double val = list[0][last];
 	    for (int i = 1; i < list.length; i++) {
-	        if (list[i][3] < val) {
-	            val = list[i][3];
+	        if (list[i][last] < val) {
+	            val = list[i][last];
 	            index = i;
             }
         }
@@ -0,0 +1,36 @@
+/**
+ * Gradient descent with (optionally Nesterov) momentum.
+ */
+class MomentumOptimizer extends Optimizer {
+
+    private final double m_alpha;
+    private final double m_momentum;
+    private final boolean m_nesterov;
+    private double[] m_velocity;
+    private double[] m_gradient;
+
+    public MomentumOptimizer(double alpha, double momentum, boolean nesterov) {
+        this.m_alpha = alpha;
+        this.m_momentum = momentum;
+        this.m_nesterov = nesterov;
+    }
+
+    @Override
+    protected void init(int numCoefficients) {
+        m_velocity = new double[numCoefficients];
+        m_gradient = new double[numCoefficients];
+    }
+
+    @Override
+    protected double iterate(GradientEngine engine, double[] theta, int[] indices) {
+        double loss = engine.gradient(theta, m_gradient);
+        double v;
+        for (int t : indices) {
+            v = m_momentum * m_velocity[t] - m_alpha * m_gradient[t];
+            // Nesterov's look ahead, expressed with the gradient at theta
+            theta[t] += m_nesterov ? -m_momentum * m_velocity[t] + (1 + m_momentum) * v : v;
+            m_velocity[t] = v;
+        }
+        return loss;
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Arrays;
+
+/**
+ * Minimizes the squared error of a linear predictor using the gradients of
+ * a GradientEngine. Optimization stops when the relative change of the error
+ * between two iterations falls below the tolerance, when the error stops
+ * being finite, or when the iteration or time budget runs out.
+ * The error of every iteration is kept in the loss history.
+ */
+public abstract class Optimizer {
+
+    private double m_tolerance = 1e-10;
+    private int m_maxIterations = 100000;
+    private long m_timeBudgetMillis = 0;
+    private double[] m_lossHistory = new double[0];
+    private int m_numIterations;
+
+    public void setTolerance(double tolerance) {
+        this.m_tolerance = tolerance;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 1) throw new IllegalArgumentException("maxIterations must be positive: " + maxIterations);
+        this.m_maxIterations = maxIterations;
+    }
+
+    /**
+     * @param timeBudgetMillis - 0 for no time limit
+     */
+    public void setTimeBudget(long timeBudgetMillis) {
+        this.m_timeBudgetMillis = timeBudgetMillis;
+    }
+
+    /**
+     * Returns the MSE at every iteration of the last optimization.
+     *
+     * @return
+     */
+    public double[] getLossHistory() {
+        return Arrays.copyOf(m_lossHistory, m_numIterations);
+    }
+
+    /**
+     * Optimizes theta in place, starting from its current value.
+     * Only the intercept and the coefficients of the engine's attributes are changed.
+     *
+     * @param engine
+     * @param theta - indexed like LinearRegression's m_coefficients
+     * @return the final MSE
+     */
+    public double optimize(GradientEngine engine, double[] theta) {
+        int[] slots = engine.slots();
+        int[] indices = new int[slots.length + 1];
+        System.arraycopy(slots, 0, indices, 1, slots.length);
+        long deadline = (m_timeBudgetMillis > 0) ? System.nanoTime() + m_timeBudgetMillis * 1000000 : Long.MAX_VALUE;
+        double loss, preLoss = Double.NaN;
+
+        m_lossHistory = new double[Math.min(m_maxIterations, 1024)];
+        m_numIterations = 0;
+        init(theta.length);
+
+        for (int i = 0; i < m_maxIterations; i++) {
+            loss = iterate(engine, theta, indices);
+            record(loss);
+            if (Double.isNaN(loss) || Double.isInfinite(loss)) break;
+            if (i > 0 && Math.abs(preLoss - loss) <= m_tolerance * Math.max(Math.abs(preLoss), 1e-300)) break;
+            if (System.nanoTime() > deadline) break;
+            preLoss = loss;
+        }
+        return (m_numIterations > 0) ? m_lossHistory[m_numIterations - 1] : Double.NaN;
+    }
+
+    private void record(double loss) {
+        if (m_numIterations == m_lossHistory.length)
+            m_lossHistory = Arrays.copyOf(m_lossHistory, 2 * m_lossHistory.length);
+        m_lossHistory[m_numIterations++] = loss;
+    }
+
+    /**
+     * Allocates the state of the optimizer.
+     *
+     * @param numCoefficients
+     */
+    protected abstract void init(int numCoefficients);
+
+    /**
+     * Performs a single iteration.
+     *
+     * @param engine
+     * @param theta   - the coefficients, updated in place
+     * @param indices - the coefficients to optimize
+     * @return the MSE of the coefficients before the step of this iteration
+     */
+    protected abstract double iterate(GradientEngine engine, double[] theta, int[] indices);
+}
@@ -0,0 +1,136 @@
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.AbstractFileLoader;
+import weka.core.converters.ArffLoader;
+import weka.core.converters.CSVLoader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Trains a linear regression predictor with mini-batch stochastic gradient
+ * descent while streaming the data file, so only a single mini-batch is
+ * held in memory at any time. ARFF files (any extension) and CSV files
+ * (.csv) are supported, the class is assumed to be the last attribute.
+ * The learning rate of step t is learningRate / (1 + decay * t).
+ */
+public class StreamingSGDTrainer {
+
+    private int m_batchSize = 64;
+    private int m_epochs = 20;
+    private double m_learningRate = 1e-4;
+    private double m_decay = 1e-3;
+    private double[] m_epochErrors;
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+        this.m_batchSize = batchSize;
+    }
+
+    public void setEpochs(int epochs) {
+        if (epochs < 1) throw new IllegalArgumentException("epochs must be positive: " + epochs);
+        this.m_epochs = epochs;
+    }
+
+    public void setLearningRate(double learningRate) {
+        this.m_learningRate = learningRate;
+    }
+
+    public void setDecay(double decay) {
+        this.m_decay = decay;
+    }
+
+    /**
+     * Returns the MSE of each epoch, measured on every mini-batch before the
+     * update it triggered.
+     *
+     * @return
+     */
+    public double[] getEpochErrors() {
+        return m_epochErrors;
+    }
+
+    /**
+     * Trains a predictor on the given file by passing over it m_epochs times.
+     *
+     * @param fileName
+     * @return the trained predictor
+     * @throws IOException
+     */
+    public LinearRegression train(String fileName) throws IOException {
+        AbstractFileLoader loader = openLoader(fileName);
+        Instances header = loader.getStructure();
+        header.setClassIndex(header.numAttributes() - 1);
+
+        int classIndex = header.classIndex();
+        int n = header.numAttributes();
+        // theta[0] is the intercept and theta[i+1] belongs to attribute i
+        double[] theta = new double[n];
+        double[] gradient = new double[n];
+        double[][] batch = new double[m_batchSize][n];
+        double alpha, SE, r;
+        long step = 0, count;
+        int size;
+        Instance instance;
+        m_epochErrors = new double[m_epochs];
+
+        for (int i = 0; i < n; i++) theta[i] = 1;
+
+        for (int epoch = 0; epoch < m_epochs; epoch++) {
+            if (epoch > 0) {
+                loader = openLoader(fileName);
+                header = loader.getStructure();
+                header.setClassIndex(classIndex);
+            }
+            SE = 0;
+            count = 0;
+            size = 0;
+
+            do {
+                instance = loader.getNextInstance(header);
+                if (instance != null && !instance.hasMissingValue()) {
+                    for (int i = 0; i < n; i++) batch[size][i] = instance.value(i);
+                    size++;
+                }
+                if (size == m_batchSize || (instance == null && size > 0)) {
+                    // gradient of the mini-batch
+                    for (int i = 0; i < n; i++) gradient[i] = 0;
+                    for (int b = 0; b < size; b++) {
+                        r = theta[0] - batch[b][classIndex];
+                        for (int i = 0; i < n; i++)
+                            if (i != classIndex) r += theta[i + 1] * batch[b][i];
+                        SE += r * r;
+                        gradient[0] += r;
+                        for (int i = 0; i < n; i++)
+                            if (i != classIndex) gradient[i + 1] += r * batch[b][i];
+                    }
+
+                    alpha = m_learningRate / (1 + m_decay * step++);
+                    for (int i = 0; i < n; i++) theta[i] -= alpha * gradient[i] / size;
+                    count += size;
+                    size = 0;
+                }
+            } while (instance != null);
+
+            m_epochErrors[epoch] = (count == 0) ? 0 : SE / (2 * count);
+        }
+
+        LinearRegression lr = new LinearRegression();
+        lr.setModel(header, theta);
+        return lr;
+    }
+
+    /**
+     * Opens an incremental loader on the file, a CSV loader for .csv files
+     * and an ARFF loader otherwise.
+     *
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    private static AbstractFileLoader openLoader(String fileName) throws IOException {
+        AbstractFileLoader loader = fileName.toLowerCase().endsWith(".csv") ? new CSVLoader() : new ArffLoader();
+        loader.setSource(new File(fileName));
+        return loader;
+    }
+}
@@ -0,0 +1,174 @@
+import weka.core.Instance;
+import weka.core.Instances;
+
+import java.util.stream.IntStream;
+
+/**
+ * Evaluates least squares fits over subsets of the attributes.
+ * The centered cross products X^T X and X^T y of all attributes are
+ * calculated once, and each subset is then solved from the relevant
+ * submatrix in O(k^3) without another pass over the data.
+ * Subsets are given as arrays of attribute indices, so the data itself is
+ * never modified and subsets can be evaluated concurrently.
+ */
+public class SubsetRegression {
+
+    private final int m_numInstances;
+    private final int m_classIndex;
+    // position of every attribute in the cross products, -1 for the class
+    private final int[] m_positions;
+    private final double[] m_means;
+    private final double[][] m_XtX;
+    private final double[] m_Xty;
+    private final double m_classMean;
+    private final double m_yty;
+
+    public SubsetRegression(Instances data) {
+        int numAttributes = data.numAttributes();
+        int p = numAttributes - 1;
+        m_numInstances = data.numInstances();
+        m_classIndex = data.classIndex();
+        m_positions = new int[numAttributes];
+        m_means = new double[p];
+        m_XtX = new double[p][p];
+        m_Xty = new double[p];
+        double[] x = new double[p];
+        double y, classSum = 0, yty = 0;
+        Instance instance;
+
+        for (int a = 0, t = 0; a < numAttributes; a++) m_positions[a] = (a == m_classIndex) ? -1 : t++;
+
+        // means, so the cross products are calculated on centered data
+        for (int i = 0; i < m_numInstances; i++) {
+            instance = data.instance(i);
+            for (int a = 0; a < numAttributes; a++)
+                if (a != m_classIndex) m_means[m_positions[a]] += instance.value(a);
+            classSum += instance.value(m_classIndex);
+        }
+        for (int t = 0; t < p; t++) m_means[t] /= m_numInstances;
+        m_classMean = classSum / m_numInstances;
+
+        for (int i = 0; i < m_numInstances; i++) {
+            instance = data.instance(i);
+            for (int a = 0; a < numAttributes; a++)
+                if (a != m_classIndex) x[m_positions[a]] = instance.value(a) - m_means[m_positions[a]];
+            y = instance.value(m_classIndex) - m_classMean;
+            yty += y * y;
+            for (int r = 0; r < p; r++) {
+                m_Xty[r] += x[r] * y;
+                for (int c = 0; c <= r; c++) m_XtX[r][c] += x[r] * x[c];
+            }
+        }
+        for (int r = 0; r < p; r++)
+            for (int c = r + 1; c < p; c++) m_XtX[r][c] = m_XtX[c][r];
+        m_yty = yty;
+    }
+
+    public int numInstances() {
+        return m_numInstances;
+    }
+
+    /**
+     * Returns the least squares coefficients of the given subset, in the
+     * layout of LinearRegression: index 0 is the intercept and index a+1
+     * belongs to attribute a.
+     *
+     * @param attributes - indices of the attributes to fit on
+     * @return the coefficients, or null if the subset is linearly dependent
+     */
+    public double[] coefficients(int[] attributes) {
+        double[] b = solve(attributes);
+        if (b == null) return null;
+
+        double[] coefficients = new double[m_positions.length];
+        double intercept = m_classMean;
+        for (int t = 0; t < attributes.length; t++) {
+            coefficients[attributes[t] + 1] = b[t];
+            intercept -= b[t] * m_means[m_positions[attributes[t]]];
+        }
+        coefficients[0] = intercept;
+        return coefficients;
+    }
+
+    /**
+     * Calculates the training MSE (as in LinearRegression#calculateMSE())
+     * of the least squares fit on the given subset of attributes.
+     *
+     * @param attributes - indices of the attributes to fit on
+     * @return the MSE, or Double.MAX_VALUE if the subset is linearly dependent
+     */
+    public double mse(int[] attributes) {
+        double[] b = solve(attributes);
+        if (b == null) return Double.MAX_VALUE;
+
+        // at the least squares solution SE = y^T y - b^T X^T y
+        double SE = m_yty;
+        for (int t = 0; t < attributes.length; t++) SE -= b[t] * m_Xty[m_positions[attributes[t]]];
+        return Math.max(SE, 0) / (2 * m_numInstances);
+    }
+
+    /**
+     * Evaluates every subset of size k, in parallel.
+     *
+     * @param k
+     * @return a row per subset in lexicographic order, holding the k attribute
+     * indices followed by the MSE
+     */
+    public double[][] evaluateAll(int k) {
+        int[] attributes = new int[m_positions.length - 1];
+        for (int a = 0, t = 0; a < m_positions.length; a++) if (a != m_classIndex) attributes[t++] = a;
+        if (k < 1 || k > attributes.length)
+            throw new IllegalArgumentException("subset size must be between 1 and " + attributes.length + ": " + k);
+
+        double[][] errorList = new double[(int) binomial(attributes.length, k)][k + 1];
+        int[] combination = new int[k];
+        for (int i = 0; i < k; i++) combination[i] = i;
+        for (double[] row : errorList) {
+            for (int i = 0; i < k; i++) row[i] = attributes[combination[i]];
+            nextCombination(combination, attributes.length);
+        }
+
+        IntStream.range(0, errorList.length).parallel().forEach(c -> {
+            int[] subset = new int[k];
+            for (int i = 0; i < k; i++) subset[i] = (int) errorList[c][i];
+            errorList[c][k] = mse(subset);
+        });
+        return errorList;
+    }
+
+    /**
+     * Solves the centered normal equations restricted to the subset.
+     */
+    private double[] solve(int[] attributes) {
+        int k = attributes.length;
+        double[][] A = new double[k][k];
+        double[] b = new double[k];
+        for (int r = 0; r < k; r++) {
+            int pr = m_positions[attributes[r]];
+            b[r] = m_Xty[pr];
+            for (int c = 0; c < k; c++) A[r][c] = m_XtX[pr][m_positions[attributes[c]]];
+        }
+        return LinearAlgebra.solve(A, b);
+    }
+
+    /**
+     * Advances the combination to the next one in lexicographic order.
+     *
+     * @return false if it was the last one
+     */
+    static boolean nextCombination(int[] combination, int n) {
+        int k = combination.length;
+        int i = k - 1;
+        while (i >= 0 && combination[i] == n - k + i) i--;
+        if (i < 0) return false;
+        combination[i]++;
+        for (int j = i + 1; j < k; j++) combination[j] = combination[j - 1] + 1;
+        return true;
+    }
+
+    static long binomial(int n, int k) {
+        long result = 1;
+        for (int i = 1; i <= k; i++) result = result * (n - k + i) / i;
+        return result;
+    }
+}